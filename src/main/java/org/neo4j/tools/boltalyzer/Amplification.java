@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Turns each captured session into several concurrent copies of itself when replaying, to generate more load than was
+ * captured from the same capture.
+ *
+ * Each copy keeps the timing within the session, but can be shifted against the other copies, by a fixed step per copy
+ * and by a random jitter, so copies do not send every query at the very same moment. Integer parameters can be
+ * perturbed per copy, so copies look up or create different entities rather than contending on the same ones.
+ */
+public class Amplification
+{
+    private final long perturbStride;
+    private final long[] offsetNs;
+
+    /**
+     * @param copies how many copies of each session to run, including the original
+     * @param shiftUs copy {@code i} starts {@code i * shiftUs} later than the original
+     * @param jitterUs each copy other than the original starts up to this much later still, chosen at random
+     * @param perturbStride copy {@code i} adds {@code i * perturbStride} to every integer parameter, or 0 to not perturb
+     */
+    public Amplification( int copies, long shiftUs, long jitterUs, long perturbStride )
+    {
+        if( copies < 1 )
+        {
+            throw new IllegalArgumentException( "Must replay at least one copy of each session, got " + copies );
+        }
+        this.perturbStride = perturbStride;
+        this.offsetNs = new long[copies];
+        for ( int copy = 1; copy < copies; copy++ )
+        {
+            long jitter = jitterUs > 0 ? ThreadLocalRandom.current().nextLong( jitterUs ) : 0;
+            offsetNs[copy] = (copy * shiftUs + jitter) * 1000;
+        }
+    }
+
+    public int copies()
+    {
+        return offsetNs.length;
+    }
+
+    /** How much later than captured the given copy runs, on top of the replay timing */
+    public long offsetNs( int copy )
+    {
+        return offsetNs[copy];
+    }
+
+    /** The parameters the given copy should use in place of the captured ones */
+    public Map<String,Object> params( int copy, Map<String,Object> params )
+    {
+        if( copy == 0 || perturbStride == 0 || params == null )
+        {
+            return params;
+        }
+        return perturbMap( params, copy * perturbStride );
+    }
+
+    private static Map<String,Object> perturbMap( Map<String,Object> map, long delta )
+    {
+        Map<String,Object> perturbed = new LinkedHashMap<>( map.size() * 2 );
+        map.forEach( ( key, value ) -> perturbed.put( key, perturb( value, delta ) ) );
+        return perturbed;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static Object perturb( Object value, long delta )
+    {
+        if( value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte )
+        {
+            return ((Number) value).longValue() + delta;
+        }
+        if( value instanceof Map )
+        {
+            return perturbMap( (Map<String,Object>) value, delta );
+        }
+        if( value instanceof List )
+        {
+            List<Object> perturbed = new ArrayList<>( ((List<?>) value).size() );
+            for ( Object item : (List<?>) value )
+            {
+                perturbed.add( perturb( item, delta ) );
+            }
+            return perturbed;
+        }
+        return value;
+    }
+}
@@ -26,9 +26,10 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.function.Function;
+import java.util.Set;
 
 import org.neo4j.tools.boltalyzer.bolt1.Dechunker;
 import org.neo4j.tools.boltalyzer.ws.WebsocketDecoder;
@@ -48,10 +49,11 @@ public class AnalyzedSession
     private final Dechunker clientStream;
     private final Dechunker serverStream;
 
-    private Function<ByteBuffer, ByteBuffer> clientWebsocketDecoder;
-    private Function<ByteBuffer, ByteBuffer> serverWebsocketDecoder;
+    private WebsocketDecoder clientWebsocketDecoder;
+    private WebsocketDecoder serverWebsocketDecoder;
 
-    private int clientHandshakeRemaining = 16;
+    /** Magic preamble and four proposed versions */
+    private int clientHandshakeRemaining = 20;
     private int serverHandshakeRemaining = 4;
 
     enum State
@@ -64,16 +66,36 @@ public class AnalyzedSession
 
     private State state = State.DETECTING;
 
+    /** Described when the capture cut off the payload where message boundaries can't be followed */
+    static final String NOT_CAPTURED = "<NOT CAPTURED>";
+    /** Which side sent the most recent payload, or null before any has been sent */
+    private Boolean lastSenderWasClient;
+
     private String clientOrigin;
 
+    /** Bolt bytes in the most recent client packet, until picked up with {@link #takeClientBolt()} */
+    private ByteBuffer clientBolt;
+
+    private final Set<String> finSeenFrom = new HashSet<>( 2 );
+    private boolean closed = false;
+
     public AnalyzedSession(String name, long id)
+    {
+        this( name, id, true );
+    }
+
+    /**
+     * @param decodeRecords if false, RECORD messages are described without their fields, which is much cheaper when
+     *                      results are large and only their size is of interest
+     */
+    public AnalyzedSession(String name, long id, boolean decodeRecords)
     {
         this.name = name;
         this.id = id;
         this.clientStreamDescriber = new BoltMessageDescriber();
         this.serverStreamDescriber = new BoltMessageDescriber();
-        this.clientStream = new Dechunker( clientStreamDescriber, () -> {} );
-        this.serverStream = new Dechunker( serverStreamDescriber, () -> {} );
+        this.clientStream = new Dechunker( clientStreamDescriber, clientStreamDescriber, decodeRecords );
+        this.serverStream = new Dechunker( serverStreamDescriber, serverStreamDescriber, decodeRecords );
     }
 
     public String name()
@@ -89,6 +111,16 @@ public class AnalyzedSession
      * @throws IOException
      */
     public List<Dict> describe( String origin, ByteBuffer packet ) throws IOException
+    {
+        return describe( origin, packet, 0 );
+    }
+
+    /**
+     * Describe a packet that may have been cut short by the capture snap length. Messages the capture cut into are
+     * described by type and framing only, see {@link Dechunker#skip(int)}.
+     * @param uncaptured number of payload bytes that followed {@code packet} on the wire, but are not in the capture
+     */
+    public List<Dict> describe( String origin, ByteBuffer packet, int uncaptured ) throws IOException
     {
         switch(state)
         {
@@ -102,30 +134,48 @@ public class AnalyzedSession
                 clientWebsocketDecoder = new WebsocketDecoder();
                 serverWebsocketDecoder = new WebsocketDecoder();
                 clientOrigin = origin;
-                return describe( origin, packet );
+                return describe( origin, packet, uncaptured );
             }
 
             if( contains( packet, ByteBuffer.allocate(4).order( ByteOrder.BIG_ENDIAN ).putInt( 0x6060B017 ).array() ))
             {
                 state = State.TCP;
                 clientOrigin = origin;
-                return describe( origin, packet );
+                return describe( origin, packet, uncaptured );
             }
 
             state = State.UNPARSEABLE;
-            return describe( origin, packet );
+            return describe( origin, packet, uncaptured );
         case TCP:
-            if(origin.equals( clientOrigin ))
+            boolean fromClient = origin.equals( clientOrigin );
+            if( packet.remaining() + uncaptured > 0 )
             {
-                return describeClientPayload( packet );
+                // Requests are answered in full before the next is sent, unless pipelined, so when a side starts sending
+                // after the other has, it is a good bet that it starts on a message boundary
+                Dechunker stream = fromClient ? clientStream : serverStream;
+                if( stream.isLost() && lastSenderWasClient != null && lastSenderWasClient != fromClient )
+                {
+                    stream.resync();
+                }
+                lastSenderWasClient = fromClient;
             }
-            return describeServerPayload( packet );
+            if( fromClient )
+            {
+                return describeClientPayload( packet, uncaptured );
+            }
+            return describeServerPayload( packet, uncaptured );
         case WSS:
+            if( uncaptured > 0 )
+            {
+                // Websocket frames have headers of their own, which can't be followed through bytes we don't have
+                state = State.UNPARSEABLE;
+                return Collections.singletonList( dict( Fields.Message.type, NOT_CAPTURED, Fields.Message.truncated, true ) );
+            }
             if(origin.equals( clientOrigin ))
             {
-                return describeClientPayload( clientWebsocketDecoder.apply( packet ) );
+                return describeClientPayload( clientWebsocketDecoder.apply( packet ), 0 );
             }
-            return describeServerPayload( serverWebsocketDecoder.apply( packet ) );
+            return describeServerPayload( serverWebsocketDecoder.apply( packet ), 0 );
         case UNPARSEABLE:
             packet.position( packet.position() + packet.remaining() );
             return Collections.singletonList( dict( Fields.Message.type, "<UNPARSEABLE>" ) );
@@ -150,6 +200,62 @@ public class AnalyzedSession
         return "Server";
     }
 
+    /** The address of the client, without port, or "Unknown" if we have not figured out which side is the client yet */
+    public String clientHost()
+    {
+        if( clientOrigin == null )
+        {
+            return "Unknown";
+        }
+        String host = clientOrigin.substring( 0, clientOrigin.lastIndexOf( ':' ) );
+        return host.startsWith( "/" ) ? host.substring( 1 ) : host;
+    }
+
+    /** The client name and version the client gave in INIT, like "neo4j-java/1.4", or "Unknown" if it has not sent INIT */
+    public String userAgent()
+    {
+        String userAgent = clientStreamDescriber.userAgent();
+        return userAgent == null ? "Unknown" : userAgent;
+    }
+
+    /**
+     * The Bolt bytes the client sent in the packet last passed to {@link #describe(String, ByteBuffer)}, with any
+     * websocket framing removed, or null if that packet was not from the client.
+     */
+    public ByteBuffer takeClientBolt()
+    {
+        ByteBuffer bolt = clientBolt;
+        clientBolt = null;
+        return bolt;
+    }
+
+    /**
+     * Follow the TCP teardown of the connection this session runs over.
+     * @param origin same as for {@link #describe(String, ByteBuffer)}
+     * @param tcpFlags control bits of a packet in this session
+     */
+    public void observeTcpFlags( String origin, int tcpFlags )
+    {
+        if( (tcpFlags & PCAPParser.TCP_RST) != 0 )
+        {
+            closed = true;
+        }
+        if( (tcpFlags & PCAPParser.TCP_FIN) != 0 )
+        {
+            finSeenFrom.add( origin );
+            closed |= finSeenFrom.size() == 2;
+        }
+    }
+
+    /**
+     * True once the connection has been reset, or both sides have sent FIN. Analysis keeping state per session can let go
+     * of it when this becomes true, since no more messages will arrive.
+     */
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
     private boolean contains( ByteBuffer packet, byte[] needle )
     {
         int needleIndex = 0;
@@ -172,7 +278,7 @@ public class AnalyzedSession
         return false;
     }
 
-    private List<Dict> describeServerPayload( ByteBuffer payload ) throws IOException
+    private List<Dict> describeServerPayload( ByteBuffer payload, int uncaptured ) throws IOException
     {
         ByteBuf data = Unpooled.wrappedBuffer( payload );
         LinkedList<Dict> out = new LinkedList<>();
@@ -185,14 +291,29 @@ public class AnalyzedSession
             data.skipBytes( toRead );
             out.add( dict( Fields.Message.type, "<HANDSHAKE RESPONSE>" ) );
         }
+        int skipped = Math.min( uncaptured, serverHandshakeRemaining );
+        serverHandshakeRemaining -= skipped;
+        uncaptured -= skipped;
 
         serverStream.handle( data );
+        serverStream.skip( uncaptured );
         out.addAll(serverStreamDescriber.flushDescription());
+        notCaptured( serverStream, payload, uncaptured, out );
         return out;
     }
 
-    private List<Dict> describeClientPayload( ByteBuffer payload ) throws IOException
+    /** Say so if the stream could not be followed through this packet, or it'd look like the packet was empty */
+    private static void notCaptured( Dechunker stream, ByteBuffer payload, int uncaptured, List<Dict> out )
+    {
+        if( stream.isLost() && payload.remaining() + uncaptured > 0 )
+        {
+            out.add( dict( Fields.Message.type, NOT_CAPTURED, Fields.Message.truncated, true ) );
+        }
+    }
+
+    private List<Dict> describeClientPayload( ByteBuffer payload, int uncaptured ) throws IOException
     {
+        clientBolt = payload.duplicate();
         ByteBuf data = Unpooled.wrappedBuffer( payload );
         LinkedList<Dict> out = new LinkedList<>();
 
@@ -203,11 +324,16 @@ public class AnalyzedSession
             data.skipBytes( toRead );
             out.add( dict( Fields.Message.type, "<HANDSHAKE>" ) );
         }
+        int skipped = Math.min( uncaptured, clientHandshakeRemaining );
+        clientHandshakeRemaining -= skipped;
+        uncaptured -= skipped;
 
         clientStream.handle( data );
+        clientStream.skip( uncaptured );
 
         List<Dict> c = clientStreamDescriber.flushDescription();
         out.addAll( c );
+        notCaptured( clientStream, payload, uncaptured, out );
 
         return out;
     }
@@ -216,4 +342,22 @@ public class AnalyzedSession
     {
         return id;
     }
+
+    /** True if this session is Bolt tunneled over websockets */
+    public boolean isWebsocket()
+    {
+        return state == State.WSS;
+    }
+
+    /** Bytes the client has spent on websocket framing, 0 if this is not a websocket session */
+    public long clientWebsocketOverhead()
+    {
+        return clientWebsocketDecoder == null ? 0 : clientWebsocketDecoder.overhead();
+    }
+
+    /** Bytes the server has spent on websocket framing, 0 if this is not a websocket session */
+    public long serverWebsocketOverhead()
+    {
+        return serverWebsocketDecoder == null ? 0 : serverWebsocketDecoder.overhead();
+    }
 }
\ No newline at end of file
@@ -20,27 +20,80 @@
 package org.neo4j.tools.boltalyzer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
 import org.neo4j.bolt.v1.messaging.MessageHandler;
+import org.neo4j.bolt.v1.messaging.PackStreamMessageFormatV1.MessageTypes;
 import org.neo4j.bolt.v1.runtime.spi.Record;
 import org.neo4j.kernel.api.exceptions.Status;
+import org.neo4j.tools.boltalyzer.bolt1.Dechunker;
 
+import static java.util.Collections.emptyMap;
 import static org.neo4j.tools.boltalyzer.Dict.dict;
 
-public class BoltMessageDescriber implements MessageHandler<RuntimeException>
+public class BoltMessageDescriber implements MessageHandler<RuntimeException>, Dechunker.FramingListener
 {
     public static final String MSG_RECORD = "RECORD";
     public static final String MSG_RUN = "RUN";
+    /** Statement of a RUN message that was cut short by the capture */
+    public static final String STATEMENT_NOT_CAPTURED = "<statement not captured>";
     private long queryNo = 0;
     private final List<Dict> messages = new ArrayList<>();
+    private String userAgent;
+    /** Type of the message described last */
+    private String lastType;
+
+    // Framing of the message about to be described
+    private int[] chunks;
+    private int segments;
+
+    @Override
+    public void messageFramed( int[] chunkSizes, int chunkCount, int segments )
+    {
+        this.chunks = Arrays.copyOf( chunkSizes, chunkCount );
+        this.segments = segments;
+    }
+
+    @Override
+    public void messageTruncated( int signature )
+    {
+        String type;
+        switch( signature )
+        {
+        case MessageTypes.MSG_RUN:
+            add( dict(
+                    Fields.Message.type, MSG_RUN,
+                    Fields.Message.statement, STATEMENT_NOT_CAPTURED,
+                    Fields.Message.params, emptyMap(),
+                    Fields.Message.queryNo, queryNo++,
+                    Fields.Message.truncated, true ) );
+            return;
+        case MessageTypes.MSG_INIT:        type = "INIT"; break;
+        case MessageTypes.MSG_PULL_ALL:    type = "PULL_ALL"; break;
+        case MessageTypes.MSG_DISCARD_ALL: type = "DISCARD_ALL"; break;
+        case MessageTypes.MSG_RESET:       type = "RESET"; break;
+        case MessageTypes.MSG_ACK_FAILURE: type = "ACK_FAILURE"; break;
+        case MessageTypes.MSG_RECORD:      type = MSG_RECORD; break;
+        case MessageTypes.MSG_SUCCESS:     type = "SUCCESS"; break;
+        case MessageTypes.MSG_FAILURE:     type = "FAILURE"; break;
+        case MessageTypes.MSG_IGNORED:     type = "IGNORED"; break;
+        default:
+            // Drivers follow each RUN with PULL_ALL or DISCARD_ALL, which look the same on the wire but for their
+            // signature; either way, it's what completes the query
+            boolean fieldless = chunks != null && chunks.length == 1 && chunks[0] == 2;
+            type = fieldless && MSG_RUN.equals( lastType ) ? "PULL_ALL" : AnalyzedSession.NOT_CAPTURED;
+            break;
+        }
+        add( dict( Fields.Message.type, type, Fields.Message.truncated, true ) );
+    }
 
     @Override
     public void handleRunMessage( String statement, Map<String,Object> params ) throws RuntimeException
     {
-        messages.add( dict(
+        add( dict(
                 Fields.Message.type, MSG_RUN,
                 Fields.Message.statement, statement,
                 Fields.Message.params, params,
@@ -50,44 +103,44 @@ public class BoltMessageDescriber implements MessageHandler<RuntimeException>
     @Override
     public void handlePullAllMessage() throws RuntimeException
     {
-        messages.add( dict( Fields.Message.type, "PULL_ALL" ) );
+        add( dict( Fields.Message.type, "PULL_ALL" ) );
     }
 
     @Override
     public void handleDiscardAllMessage() throws RuntimeException
     {
-        messages.add( dict( Fields.Message.type, "DISCARD_ALL" ) );
+        add( dict( Fields.Message.type, "DISCARD_ALL" ) );
     }
 
     @Override
     public void handleResetMessage() throws RuntimeException
     {
-        messages.add( dict( Fields.Message.type, "RESET" ) );
+        add( dict( Fields.Message.type, "RESET" ) );
     }
 
     @Override
     public void handleAckFailureMessage() throws RuntimeException
     {
-        messages.add( dict( Fields.Message.type, "ACK_FAILURE" ) );
+        add( dict( Fields.Message.type, "ACK_FAILURE" ) );
     }
 
     @Override
     public void handleRecordMessage( Record item ) throws RuntimeException
     {
-        messages.add( dict( Fields.Message.type, MSG_RECORD,
-                Fields.Message.fields, item.fields() ));
+        add( dict( Fields.Message.type, MSG_RECORD,
+                Fields.Message.fields, item ));
     }
 
     @Override
     public void handleSuccessMessage( Map<String,Object> metadata ) throws RuntimeException
     {
-        messages.add( dict( Fields.Message.type, "SUCCESS", Fields.Message.metadata, metadata) );
+        add( dict( Fields.Message.type, "SUCCESS", Fields.Message.metadata, metadata) );
     }
 
     @Override
     public void handleFailureMessage( Status status, String message ) throws RuntimeException
     {
-        messages.add( dict(
+        add( dict(
                 Fields.Message.type, "FAILURE",
                 Fields.Message.status, status,
                 Fields.Message.message, message) );
@@ -96,13 +149,39 @@ public class BoltMessageDescriber implements MessageHandler<RuntimeException>
     @Override
     public void handleIgnoredMessage() throws RuntimeException
     {
-        messages.add( dict( Fields.Message.type, "IGNORED" ) );
+        add( dict( Fields.Message.type, "IGNORED" ) );
     }
 
     @Override
     public void handleInitMessage( String clientName, Map<String,Object> credentials ) throws RuntimeException
     {
-        messages.add( dict( Fields.Message.type, "INIT" ) );
+        userAgent = clientName;
+        add( dict( Fields.Message.type, "INIT" ) );
+    }
+
+    /** The client name sent in INIT, or null if no INIT has been seen */
+    public String userAgent()
+    {
+        return userAgent;
+    }
+
+    private void add( Dict message )
+    {
+        lastType = message.get( Fields.Message.type );
+        if( chunks != null )
+        {
+            // Two header bytes per chunk, plus the zero-size chunk that marks the end of the message
+            int size = 2 * (chunks.length + 1);
+            for ( int chunk : chunks )
+            {
+                size += chunk;
+            }
+            message.put( Fields.Message.size, size );
+            message.put( Fields.Message.chunks, chunks );
+            message.put( Fields.Message.segments, segments );
+            chunks = null;
+        }
+        messages.add( message );
     }
 
     /** Return a description of all messages received since last time this method was called */
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.PrintStream;
+
+import org.neo4j.tools.boltalyzer.stats.Histogram;
+import org.neo4j.tools.boltalyzer.stats.LatencyComparison;
+
+/**
+ * Finds how much of the captured query mix a target can take: replays the capture at increasing load, one step at a
+ * time, and measures the throughput achieved and the p99 response time at each step. Stops once p99 goes over the
+ * SLO, or once more load no longer gives noticeably more throughput, meaning the target is saturated.
+ *
+ * Prints one row per step, which together make a throughput-vs-latency curve, and then the highest throughput that
+ * was achieved within the SLO.
+ */
+public class CapacityRamp
+{
+    interface Step
+    {
+        /** Replay the capture once at the given load level, and return the latencies it recorded */
+        LatencyComparison replay( double level ) throws Exception;
+    }
+
+    private final PrintStream out;
+    private final String levelName;
+    private final double start;
+    private final double increment;
+    private final int maxSteps;
+    private final long sloUs;
+    private final double minGain;
+
+    /**
+     * @param levelName what the load level is, eg. "copies" or "speed"
+     * @param increment how much to raise the load level by each step
+     * @param sloUs highest acceptable p99 response time
+     * @param minGain how much more throughput, as a fraction, a step must achieve over the best before it to keep going
+     */
+    public CapacityRamp( PrintStream out, String levelName, double start, double increment, int maxSteps, long sloUs,
+            double minGain )
+    {
+        this.out = out;
+        this.levelName = levelName;
+        this.start = start;
+        this.increment = increment;
+        this.maxSteps = maxSteps;
+        this.sloUs = sloUs;
+        this.minGain = minGain;
+    }
+
+    public void run( Step step ) throws Exception
+    {
+        out.println( String.format( "Ramping %s from %s by %s, up to %d steps, p99 SLO %dus", levelName,
+                level( start ), level( increment ), maxSteps, sloUs ) );
+        out.println( "step\t" + levelName + "\tqueries\tseconds\tthroughput\tp50\tp99\tverdict" );
+
+        double bestLevel = 0;
+        double bestThroughput = 0;
+        long bestP99 = 0;
+        for ( int i = 0; i < maxSteps; i++ )
+        {
+            double level = start + i * increment;
+            long startNs = System.nanoTime();
+            Histogram latency = step.replay( level ).responseTimes();
+            double seconds = (System.nanoTime() - startNs) / 1e9;
+            double throughput = latency.count() / seconds;
+
+            String verdict;
+            if( latency.count() == 0 )
+            {
+                verdict = "no-queries";
+            }
+            else if( latency.percentile( 99 ) > sloUs )
+            {
+                verdict = "over-slo";
+            }
+            else if( bestThroughput > 0 && throughput < bestThroughput * (1 + minGain) )
+            {
+                verdict = "saturated";
+            }
+            else
+            {
+                verdict = "ok";
+                bestLevel = level;
+                bestThroughput = throughput;
+                bestP99 = latency.percentile( 99 );
+            }
+            out.println( String.format( "%d\t%s\t%d\t%.2f\t%.1f\t%d\t%d\t%s", i + 1, level( level ), latency.count(),
+                    seconds, throughput, latency.percentile( 50 ), latency.percentile( 99 ), verdict ) );
+            if( !verdict.equals( "ok" ) )
+            {
+                break;
+            }
+        }
+
+        if( bestThroughput == 0 )
+        {
+            out.println( "No step stayed within the SLO" );
+        }
+        else
+        {
+            out.println( String.format( "Maximum sustainable throughput: %.1f queries/s at %s %s, p99 %dus",
+                    bestThroughput, levelName, level( bestLevel ), bestP99 ) );
+        }
+    }
+
+    private static String level( double level )
+    {
+        return level == Math.rint( level ) ? String.valueOf( (long) level ) : String.valueOf( level );
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.kernel.api.exceptions.Status;
+import org.neo4j.tools.boltalyzer.Fields.Message;
+import org.neo4j.tools.boltalyzer.Fields.Query;
+import org.neo4j.tools.boltalyzer.stats.Fingerprint;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Writes completed queries to a column oriented file, so analytics tools can read the one or two columns they are
+ * interested in without parsing the rest. See {@link ColumnarReader} for reading it back.
+ *
+ * Rows are gathered in row groups, with a buffer per column; once a group has {@link #ROWS_PER_GROUP} rows or one of
+ * its buffers has grown to {@link #MAX_CHUNK_BYTES}, each buffer is written out as a chunk of its own. A footer at the
+ * end of the file says where each chunk is.
+ *
+ * Numbers are written as variable length integers, zig-zag encoded so small negative numbers stay small. Columns
+ * that mostly grow, like time, are written as the difference to the previous row in the group. Text is dictionary
+ * encoded: each distinct string is given an id the first time it is seen, and the column holds the ids. The strings
+ * first seen in a group are written in a dictionary chunk of that group, so ids count up through the file.
+ *
+ * The dictionaries are bounded as well: once the strings of one pass {@link #MAX_DICTIONARY_BYTES}, it is cleared, and
+ * strings seen again get new ids. Each group records the lowest id its rows may use, so readers can let go of the
+ * strings before it too. Captures whose clients send literals rather than parameters can then be exported in
+ * constant memory, at the cost of writing out their most common statements again now and then.
+ *
+ * <pre>
+ * header   "BOLTCOLS" int:version
+ * chunks   bytes...     dictionary chunks are { int:length bytes:utf8 } for each new string
+ * footer   int:columns { utf:name byte:encoding }
+ *          int:groups { int:rows { long:offset int:length } for each column
+ *                       { long:offset int:length int:entries int:lowest-id } for each DICTIONARY column }
+ * trailer  long:footer-offset "BOLTCOLS"
+ * </pre>
+ *
+ * Columns are {@link #COLUMNS}. Times are in microseconds; time is when the query was sent, latency how long until the
+ * final response arrived. error is the status code of failed queries, and the empty string for those that did not fail.
+ */
+public class ColumnarExport implements Boltalyzer.ClosableConsumer<Dict>
+{
+    static final byte[] MAGIC = "BOLTCOLS".getBytes( StandardCharsets.US_ASCII );
+    static final int VERSION = 2;
+    static final byte VARINT = 'V';
+    static final byte DELTA = 'D';
+    static final byte DICTIONARY = 'S';
+    static final String[] COLUMNS = {"time", "session", "fingerprint", "statement", "latency", "resultBytes", "records", "error"};
+    static final byte[] ENCODINGS = {DELTA, DELTA, DICTIONARY, DICTIONARY, VARINT, VARINT, VARINT, DICTIONARY};
+
+    static final int ROWS_PER_GROUP = 64 * 1024;
+    static final int MAX_CHUNK_BYTES = 1024 * 1024;
+    static final int MAX_DICTIONARY_BYTES = 16 * 1024 * 1024;
+
+    private static final int TIME = 0;
+    private static final int SESSION = 1;
+    private static final int FINGERPRINT = 2;
+    private static final int STATEMENT = 3;
+    private static final int LATENCY = 4;
+    private static final int RESULT_BYTES = 5;
+    private static final int RECORDS = 6;
+    private static final int ERROR = 7;
+
+    private final PrintStream out;
+    private final Path path;
+    private final long microsPerUnit;
+    private final int rowsPerGroup;
+    private final long maxDictionaryBytes;
+    private final DataOutputStream file;
+    private final Chunk[] chunks = new Chunk[COLUMNS.length];
+    private final Map<Integer,Dictionary> dictionaries = new HashMap<>();
+    /** For each row group, the offset and length of each of its chunks, then those of each of its dictionary chunks */
+    private final List<long[]> groups = new ArrayList<>();
+    private final List<Integer> groupRows = new ArrayList<>();
+    private long offset;
+    private int rows;
+    private long totalRows;
+
+    /** @param microsPerUnit unit of the packet timestamps, see {@link TimeMapper#microsPerUnit(String)} */
+    public ColumnarExport( PrintStream out, Path path, long microsPerUnit ) throws IOException
+    {
+        this( out, path, microsPerUnit, ROWS_PER_GROUP, MAX_DICTIONARY_BYTES );
+    }
+
+    ColumnarExport( PrintStream out, Path path, long microsPerUnit, int rowsPerGroup, long maxDictionaryBytes ) throws IOException
+    {
+        this.out = out;
+        this.rowsPerGroup = rowsPerGroup;
+        this.maxDictionaryBytes = maxDictionaryBytes;
+        this.path = path;
+        this.microsPerUnit = microsPerUnit;
+        this.file = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( path ), 1 << 16 ) );
+        for ( int i = 0; i < COLUMNS.length; i++ )
+        {
+            chunks[i] = new Chunk();
+            if( ENCODINGS[i] == DICTIONARY )
+            {
+                dictionaries.put( i, new Dictionary() );
+            }
+        }
+        file.write( MAGIC );
+        file.writeInt( VERSION );
+        offset = MAGIC.length + 4;
+    }
+
+    @Override
+    public void accept( Dict packet )
+    {
+        try
+        {
+            for ( Dict query : packet.get( Fields.queries, emptyList() ) )
+            {
+                write( query );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    private void write( Dict query ) throws IOException
+    {
+        String statement = query.get( Message.statement );
+        Status status = query.get( Query.status );
+
+        chunks[TIME].delta( query.get( Query.started ) * microsPerUnit );
+        chunks[SESSION].delta( query.get( Fields.session ).id() );
+        chunks[FINGERPRINT].varint( lookup( FINGERPRINT, Fingerprint.of( statement ) ) );
+        chunks[STATEMENT].varint( lookup( STATEMENT, statement ) );
+        chunks[LATENCY].varint( (query.get( Query.finished ) - query.get( Query.started )) * microsPerUnit );
+        chunks[RESULT_BYTES].varint( query.get( Query.resultBytes ) );
+        chunks[RECORDS].varint( query.get( Query.records ) );
+        chunks[ERROR].varint( lookup( ERROR, status == null ? "" : status.code().serialize() ) );
+        rows++;
+        totalRows++;
+
+        if( rows == rowsPerGroup || anyChunkFull() )
+        {
+            endGroup();
+        }
+    }
+
+    private int lookup( int column, String value )
+    {
+        return dictionaries.get( column ).lookup( value );
+    }
+
+    private boolean anyChunkFull()
+    {
+        for ( Chunk chunk : chunks )
+        {
+            if( chunk.size() >= MAX_CHUNK_BYTES )
+            {
+                return true;
+            }
+        }
+        for ( Dictionary dictionary : dictionaries.values() )
+        {
+            if( dictionary.added.size() >= MAX_CHUNK_BYTES )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void endGroup() throws IOException
+    {
+        long[] index = new long[COLUMNS.length * 2 + dictionaries.size() * 4];
+        for ( int i = 0; i < COLUMNS.length; i++ )
+        {
+            index[i * 2] = offset;
+            index[i * 2 + 1] = chunks[i].size();
+            offset += chunks[i].size();
+            chunks[i].writeTo( file );
+            chunks[i].reset();
+        }
+        int d = COLUMNS.length * 2;
+        for ( int i = 0; i < COLUMNS.length; i++ )
+        {
+            Dictionary dictionary = dictionaries.get( i );
+            if( dictionary != null )
+            {
+                index[d++] = offset;
+                index[d++] = dictionary.added.size();
+                index[d++] = dictionary.addedEntries;
+                index[d++] = dictionary.lowestId;
+                offset += dictionary.added.size();
+                dictionary.added.writeTo( file );
+                dictionary.endGroup( maxDictionaryBytes );
+            }
+        }
+        groups.add( index );
+        groupRows.add( rows );
+        rows = 0;
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        if( rows > 0 )
+        {
+            endGroup();
+        }
+
+        long footer = offset;
+        file.writeInt( COLUMNS.length );
+        for ( int i = 0; i < COLUMNS.length; i++ )
+        {
+            file.writeUTF( COLUMNS[i] );
+            file.writeByte( ENCODINGS[i] );
+        }
+        file.writeInt( groups.size() );
+        for ( int g = 0; g < groups.size(); g++ )
+        {
+            file.writeInt( groupRows.get( g ) );
+            long[] index = groups.get( g );
+            for ( int i = 0; i < COLUMNS.length; i++ )
+            {
+                file.writeLong( index[i * 2] );
+                file.writeInt( (int) index[i * 2 + 1] );
+            }
+            for ( int d = COLUMNS.length * 2; d < index.length; d += 4 )
+            {
+                file.writeLong( index[d] );
+                file.writeInt( (int) index[d + 1] );
+                file.writeInt( (int) index[d + 2] );
+                file.writeInt( (int) index[d + 3] );
+            }
+        }
+        file.writeLong( footer );
+        file.write( MAGIC );
+        file.close();
+
+        out.println( String.format( "Exported %d queries in %d row groups, using %d statement dictionary entries, into %s (%d bytes)",
+                totalRows, groups.size(), dictionaries.get( STATEMENT ).nextId, path, Files.size( path ) ) );
+    }
+
+    /** Ids of the strings of one dictionary encoded column, and the strings first seen in the current row group */
+    private static class Dictionary
+    {
+        private final Map<String,Integer> ids = new HashMap<>();
+        private final DataOutputStream addedOut;
+        private final ByteArrayOutputStream added = new ByteArrayOutputStream();
+        private int addedEntries;
+        private int nextId;
+        /** The lowest id in {@link #ids}; rows written since the last time it was cleared use no ids below this */
+        private int lowestId;
+        private long bytes;
+
+        Dictionary()
+        {
+            this.addedOut = new DataOutputStream( added );
+        }
+
+        int lookup( String value )
+        {
+            Integer id = ids.get( value );
+            if( id == null )
+            {
+                id = nextId++;
+                ids.put( value, id );
+                byte[] utf8 = value.getBytes( StandardCharsets.UTF_8 );
+                try
+                {
+                    addedOut.writeInt( utf8.length );
+                    addedOut.write( utf8 );
+                }
+                catch ( IOException e )
+                {
+                    throw new UncheckedIOException( e );
+                }
+                addedEntries++;
+                bytes += utf8.length;
+            }
+            return id;
+        }
+
+        /** The new strings have been written out; start over if the dictionary has grown too large */
+        void endGroup( long maxBytes )
+        {
+            added.reset();
+            addedEntries = 0;
+            if( bytes > maxBytes )
+            {
+                ids.clear();
+                bytes = 0;
+                lowestId = nextId;
+            }
+        }
+    }
+
+    /** The values of one column in the current row group, encoded */
+    private static class Chunk extends ByteArrayOutputStream
+    {
+        private long previous;
+
+        void delta( long value )
+        {
+            varint( value - previous );
+            previous = value;
+        }
+
+        void varint( long value )
+        {
+            long zigzag = (value << 1) ^ (value >> 63);
+            while( (zigzag & ~0x7FL) != 0 )
+            {
+                write( (int) ((zigzag & 0x7F) | 0x80) );
+                zigzag >>>= 7;
+            }
+            write( (int) zigzag );
+        }
+
+        @Override
+        public void reset()
+        {
+            super.reset();
+            previous = 0;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Reads a file written by {@link ColumnarExport}. Only the footer is read up front; scanning a column reads that
+ * column's chunks and nothing else, and for text columns its dictionary chunks, keeping only the strings the rows
+ * still to come may use.
+ */
+public class ColumnarReader implements AutoCloseable
+{
+    private final FileChannel channel;
+    private final List<String> columns = new ArrayList<>();
+    private final List<Byte> encodings = new ArrayList<>();
+    private final List<Integer> groupRows = new ArrayList<>();
+    /** For each row group, the offset and length of each of its chunks */
+    private final List<long[]> groups = new ArrayList<>();
+    /** For each row group, the offset, length, number of entries and lowest id used of each of its dictionary chunks */
+    private final List<long[]> dictionaryChunks = new ArrayList<>();
+    /** Position of each dictionary encoded column among the dictionary chunks of a group */
+    private final Map<String,Integer> dictionaryColumns = new HashMap<>();
+
+    public ColumnarReader( Path path ) throws IOException
+    {
+        this.channel = FileChannel.open( path, StandardOpenOption.READ );
+
+        long size = channel.size();
+        ByteBuffer trailer = read( size - 8 - ColumnarExport.MAGIC.length, 8 + ColumnarExport.MAGIC.length );
+        long footerOffset = trailer.getLong();
+        byte[] magic = new byte[ColumnarExport.MAGIC.length];
+        trailer.get( magic );
+        ByteBuffer header = read( 0, ColumnarExport.MAGIC.length + 4 );
+        byte[] headerMagic = new byte[ColumnarExport.MAGIC.length];
+        header.get( headerMagic );
+        if( !Arrays.equals( magic, ColumnarExport.MAGIC ) || !Arrays.equals( headerMagic, ColumnarExport.MAGIC ) ||
+            header.getInt() != ColumnarExport.VERSION )
+        {
+            throw new IOException( path + " is not a version " + ColumnarExport.VERSION + " columnar export" );
+        }
+
+        ByteBuffer footer = read( footerOffset, (int) (size - 8 - ColumnarExport.MAGIC.length - footerOffset) );
+        int columnCount = footer.getInt();
+        for ( int i = 0; i < columnCount; i++ )
+        {
+            byte[] name = new byte[footer.getShort() & 0xFFFF];
+            footer.get( name );
+            columns.add( new String( name, StandardCharsets.UTF_8 ) );
+            encodings.add( footer.get() );
+            if( encodings.get( i ) == ColumnarExport.DICTIONARY )
+            {
+                dictionaryColumns.put( columns.get( i ), dictionaryColumns.size() );
+            }
+        }
+        int groupCount = footer.getInt();
+        for ( int g = 0; g < groupCount; g++ )
+        {
+            groupRows.add( footer.getInt() );
+            long[] index = new long[columnCount * 2];
+            for ( int i = 0; i < columnCount; i++ )
+            {
+                index[i * 2] = footer.getLong();
+                index[i * 2 + 1] = footer.getInt();
+            }
+            groups.add( index );
+            long[] dictionaryIndex = new long[dictionaryColumns.size() * 4];
+            for ( int d = 0; d < dictionaryIndex.length; d += 4 )
+            {
+                dictionaryIndex[d] = footer.getLong();
+                dictionaryIndex[d + 1] = footer.getInt();
+                dictionaryIndex[d + 2] = footer.getInt();
+                dictionaryIndex[d + 3] = footer.getInt();
+            }
+            dictionaryChunks.add( dictionaryIndex );
+        }
+    }
+
+    public List<String> columns()
+    {
+        return columns;
+    }
+
+    public long rows()
+    {
+        return groupRows.stream().mapToLong( Integer::longValue ).sum();
+    }
+
+    /**
+     * Hand each value in the given column to the consumer, in row order. For dictionary encoded columns, the values
+     * are positions in {@link #dictionary(String)}.
+     */
+    public void scan( String column, LongConsumer values ) throws IOException
+    {
+        int i = columnIndex( column );
+        for ( int g = 0; g < groups.size(); g++ )
+        {
+            scanGroup( i, g, values );
+        }
+    }
+
+    /** Hand each value in the given dictionary encoded column to the consumer, in row order */
+    public void scanText( String column, Consumer<String> values ) throws IOException
+    {
+        int i = columnIndex( column );
+        int d = dictionaryColumn( column ) * 4;
+        List<String> live = new ArrayList<>();
+        long lowestId = 0;
+        for ( int g = 0; g < groups.size(); g++ )
+        {
+            long[] dictionaryIndex = dictionaryChunks.get( g );
+            // The writer cleared its dictionary, so rows from here on won't use what came before
+            if( dictionaryIndex[d + 3] > lowestId )
+            {
+                live.subList( 0, (int) Math.min( live.size(), dictionaryIndex[d + 3] - lowestId ) ).clear();
+                lowestId = dictionaryIndex[d + 3];
+            }
+            readDictionaryChunk( dictionaryIndex, d, live );
+            long base = lowestId;
+            scanGroup( i, g, id -> values.accept( live.get( (int) (id - base) ) ) );
+        }
+    }
+
+    /**
+     * All values of a dictionary encoded column, by id, in the order they were first seen. Values are only distinct
+     * within each stretch where the writer kept its dictionary, see {@link ColumnarExport#MAX_DICTIONARY_BYTES}.
+     */
+    public List<String> dictionary( String column ) throws IOException
+    {
+        int d = dictionaryColumn( column ) * 4;
+        List<String> dictionary = new ArrayList<>();
+        for ( long[] dictionaryIndex : dictionaryChunks )
+        {
+            readDictionaryChunk( dictionaryIndex, d, dictionary );
+        }
+        return dictionary;
+    }
+
+    private int columnIndex( String column )
+    {
+        int i = columns.indexOf( column );
+        if( i == -1 )
+        {
+            throw new IllegalArgumentException( "No column named " + column + ", there is " + columns );
+        }
+        return i;
+    }
+
+    private int dictionaryColumn( String column )
+    {
+        Integer d = dictionaryColumns.get( column );
+        if( d == null )
+        {
+            throw new IllegalArgumentException( column + " is not a dictionary encoded column" );
+        }
+        return d;
+    }
+
+    private void scanGroup( int i, int g, LongConsumer values ) throws IOException
+    {
+        boolean delta = encodings.get( i ) == ColumnarExport.DELTA;
+        long[] index = groups.get( g );
+        ByteBuffer chunk = read( index[i * 2], (int) index[i * 2 + 1] );
+        long previous = 0;
+        for ( int row = groupRows.get( g ); row > 0; row-- )
+        {
+            long value = varint( chunk );
+            if( delta )
+            {
+                value += previous;
+                previous = value;
+            }
+            values.accept( value );
+        }
+    }
+
+    private void readDictionaryChunk( long[] dictionaryIndex, int d, List<String> into ) throws IOException
+    {
+        ByteBuffer chunk = read( dictionaryIndex[d], (int) dictionaryIndex[d + 1] );
+        for ( long entries = dictionaryIndex[d + 2]; entries > 0; entries-- )
+        {
+            byte[] utf8 = new byte[chunk.getInt()];
+            chunk.get( utf8 );
+            into.add( new String( utf8, StandardCharsets.UTF_8 ) );
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    private ByteBuffer read( long position, int length ) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( length );
+        while( buffer.hasRemaining() )
+        {
+            if( channel.read( buffer, position + buffer.position() ) == -1 )
+            {
+                throw new IOException( "Unexpected end of file" );
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static long varint( ByteBuffer chunk )
+    {
+        long zigzag = 0;
+        int shift = 0;
+        byte b;
+        do
+        {
+            b = chunk.get();
+            zigzag |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        }
+        while( (b & 0x80) != 0 );
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import org.neo4j.tools.boltalyzer.stats.Histogram;
+
+/**
+ * Tracks how many queries are in flight at each moment, in total and per client host, in a single pass.
+ *
+ * Prints a line each time the number of queries in flight changes, and a summary of each time window with the
+ * maximum and percentiles of concurrency, weighted by how long each level lasted. Ends with per-host totals and the
+ * sessions that pipelined the most requests. Only sessions with an open connection are kept in memory.
+ */
+public class Concurrency implements Boltalyzer.ClosableConsumer<Dict>
+{
+    private static final Comparator<SessionState> BY_DEPTH = Comparator.comparingInt( s -> s.maxRequestsInFlight );
+
+    private final PrintStream out;
+    private final long windowSize;
+    private final int top;
+    private final boolean printSteps;
+
+    private final Map<AnalyzedSession,SessionState> openSessions = new HashMap<>();
+    private final Map<String,Level> hosts = new TreeMap<>();
+    private final Level global = new Level();
+    /** Min-heap of the sessions with the deepest pipelining seen so far, at most {@link #top} entries */
+    private final PriorityQueue<SessionState> deepest;
+
+    private long windowStart = -1;
+    private Histogram window = new Histogram();
+
+    /**
+     * @param windowSize length of each summarised window, in the unit of the packet timestamps
+     * @param top how many of the most deeply pipelined sessions to list
+     * @param printSteps print a line each time concurrency changes, rather than just window summaries
+     */
+    public Concurrency( PrintStream out, long windowSize, int top, boolean printSteps )
+    {
+        this.out = out;
+        this.windowSize = windowSize;
+        this.top = top;
+        this.printSteps = printSteps;
+        this.deepest = new PriorityQueue<>( top + 1, BY_DEPTH );
+    }
+
+    @Override
+    public void accept( Dict packet )
+    {
+        AnalyzedSession session = packet.get( Fields.session );
+        Integer queriesInFlight = packet.get( Fields.queriesInFlight );
+        if( session == null || queriesInFlight == null )
+        {
+            return;
+        }
+        long now = packet.get( Fields.timestamp );
+        advanceWindows( now );
+
+        SessionState state = openSessions.get( session );
+        if( state == null )
+        {
+            if( session.isClosed() || queriesInFlight == 0 && packet.get( Fields.requestsInFlight, 0 ) == 0 )
+            {
+                // Nothing in flight and nothing that has been, no need to track this session yet
+                return;
+            }
+            state = new SessionState( session );
+            openSessions.put( session, state );
+        }
+
+        state.maxRequestsInFlight = Math.max( state.maxRequestsInFlight, packet.get( Fields.requestsInFlight, 0 ) );
+        state.maxQueriesInFlight = Math.max( state.maxQueriesInFlight, queriesInFlight );
+
+        int delta = queriesInFlight - state.queriesInFlight;
+        if( delta != 0 )
+        {
+            state.queriesInFlight = queriesInFlight;
+            String host = session.clientHost();
+            Level hostLevel = hosts.computeIfAbsent( host, h -> new Level() );
+
+            global.change( now, delta, window );
+            hostLevel.change( now, delta, null );
+
+            if( printSteps )
+            {
+                out.println( String.format( "step\t%d\t%d\t%s\t%d", now, global.inFlight, host, hostLevel.inFlight ) );
+            }
+        }
+
+        if( session.isClosed() )
+        {
+            openSessions.remove( session );
+            offerDeepest( state );
+        }
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        if( windowStart != -1 )
+        {
+            advanceWindows( windowStart + windowSize );
+        }
+        openSessions.values().forEach( this::offerDeepest );
+
+        out.println();
+        out.println( "host\tmax\tp50\tp90\tp99\tmean" );
+        out.println( describe( "All", global.overall ) );
+        hosts.forEach( ( host, level ) -> out.println( describe( host, level.overall ) ) );
+
+        List<SessionState> ranked = new ArrayList<>( deepest );
+        ranked.sort( BY_DEPTH.reversed() );
+        out.println();
+        out.println( String.format( "Top %d sessions by pipelining depth:", ranked.size() ) );
+        out.println( "session\thost\tmaxRequestsInFlight\tmaxQueriesInFlight" );
+        for ( SessionState state : ranked )
+        {
+            out.println( String.format( "%s\t%s\t%d\t%d", state.session.name(), state.session.clientHost(),
+                    state.maxRequestsInFlight, state.maxQueriesInFlight ) );
+        }
+    }
+
+    /** Close and print any windows that end before the given time */
+    private void advanceWindows( long now )
+    {
+        if( windowStart == -1 )
+        {
+            windowStart = now;
+            global.lastChange = now;
+            out.println( "window\tstart\tmax\tp50\tp90\tp99\tmean" );
+            return;
+        }
+        while( now >= windowStart + windowSize )
+        {
+            long windowEnd = windowStart + windowSize;
+            global.settle( windowEnd, window );
+            out.println( String.format( "window\t%d\t%d\t%d\t%d\t%d\t%.2f", windowStart,
+                    window.max(), window.percentile( 50 ), window.percentile( 90 ), window.percentile( 99 ), window.mean() ) );
+            window = new Histogram();
+            windowStart = windowEnd;
+        }
+    }
+
+    private void offerDeepest( SessionState state )
+    {
+        if( top > 0 && (deepest.size() < top || BY_DEPTH.compare( state, deepest.peek() ) > 0) )
+        {
+            deepest.add( state );
+            if( deepest.size() > top )
+            {
+                deepest.poll();
+            }
+        }
+    }
+
+    private static String describe( String name, Histogram h )
+    {
+        return String.format( "%s\t%d\t%d\t%d\t%d\t%.2f", name, h.max(), h.percentile( 50 ), h.percentile( 90 ),
+                h.percentile( 99 ), h.mean() );
+    }
+
+    /** A level of concurrency that changes as a step function; each level is recorded weighted by how long it lasted */
+    private static class Level
+    {
+        private final Histogram overall = new Histogram();
+        private int inFlight = 0;
+        private long lastChange = -1;
+
+        void change( long now, int delta, Histogram window )
+        {
+            settle( now, window );
+            inFlight += delta;
+        }
+
+        /** Record the current level as having lasted from the last change until now */
+        void settle( long now, Histogram window )
+        {
+            if( lastChange != -1 && now > lastChange )
+            {
+                overall.record( inFlight, now - lastChange );
+                if( window != null )
+                {
+                    window.record( inFlight, now - lastChange );
+                }
+            }
+            lastChange = now;
+        }
+    }
+
+    private static class SessionState
+    {
+        private final AnalyzedSession session;
+        private int queriesInFlight = 0;
+        private int maxQueriesInFlight = 0;
+        private int maxRequestsInFlight = 0;
+
+        SessionState( AnalyzedSession session )
+        {
+            this.session = session;
+        }
+    }
+}
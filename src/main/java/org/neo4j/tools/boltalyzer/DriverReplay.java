@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.PrintStream;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+import org.neo4j.driver.v1.AuthToken;
+import org.neo4j.driver.v1.AuthTokens;
+import org.neo4j.driver.v1.Config;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.GraphDatabase;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.tools.boltalyzer.Fields.Message;
+import org.neo4j.tools.boltalyzer.Fields.Query;
+import org.neo4j.tools.boltalyzer.stats.Histogram;
+import org.neo4j.tools.boltalyzer.stats.LatencyComparison;
+import org.neo4j.tools.boltalyzer.timing.ReplayClock;
+import org.neo4j.tools.boltalyzer.timing.TimerWheel;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Replays the queries in a capture through the Java driver, each captured session getting a driver session of its own
+ * that is opened when the captured session sends its first query and closed when the captured connection closes.
+ *
+ * Queries within a session run one at a time and in order, but sessions don't get threads of their own: all sessions
+ * share a small pool of workers, and a session only occupies a worker while one of its queries is running. Waiting
+ * for a query's turn is done by a timer rather than by a sleeping worker, so captures with tens of thousands of
+ * sessions can be replayed from one machine as long as not too many queries run at the same time.
+ *
+ * The timer is a {@link TimerWheel}, which dispatches queries within a fraction of a millisecond of their captured
+ * offset, so bursts in the capture stay bursts. How late each query actually started is reported at the end; if that
+ * is large, the replay did not reproduce the captured load, typically because there were too few workers.
+ *
+ * When the {@link ReplayClock} ignores captured timing, every query is due right away, so each session runs its
+ * queries back to back as fast as the target answers them - closed-loop load, as many sessions at a time as there
+ * are workers.
+ *
+ * The latency of each query is recorded per statement into a {@link LatencyComparison}, together with the captured
+ * latency of the same statements. Latency counts from when the query was due as well as from when it started, so
+ * queries that had to wait for a worker or for an earlier query in their session show up as slow.
+ *
+ * To generate more load than was captured, each captured session can be replayed as several concurrent copies, see
+ * {@link Amplification}.
+ */
+public class DriverReplay implements Boltalyzer.ClosableConsumer<Dict>
+{
+    /** Queries read from the capture but not yet run; beyond this, reading the capture waits for replay to catch up */
+    private static final int MAX_QUEUED = 64 * 1024;
+
+    private final PrintStream out;
+    private final ReplayClock clock;
+    private final LatencyComparison latencies;
+    private final Amplification amplification;
+    private final Driver driver;
+    private final ExecutorService workers;
+    private final TimerWheel timer = new TimerWheel();
+    /** How late queries started compared to their captured offset, in microseconds, including waiting for a worker */
+    private final Histogram startLateness = new Histogram();
+    private final Semaphore queued = new Semaphore( MAX_QUEUED );
+    /** The copies replaying each captured session, see {@link Amplification} */
+    private final Map<AnalyzedSession,SessionReplay[]> sessions = new HashMap<>();
+
+    /**
+     * @param workers number of queries that can run at the same time
+     * @param clock decides when each captured query should run
+     * @param latencies where to record captured and replayed latency
+     * @param amplification how many copies of each session to replay, and how they differ
+     */
+    public DriverReplay( PrintStream out, String connectionString, int workers, ReplayClock clock,
+            LatencyComparison latencies, Amplification amplification )
+    {
+        this.out = out;
+        this.clock = clock;
+        this.latencies = latencies;
+        this.amplification = amplification;
+        this.workers = Executors.newFixedThreadPool( workers );
+        this.driver = GraphDatabase.driver( connectionString, authToken( connectionString ),
+                Config.build().withMaxIdleSessions( workers ).toConfig() );
+
+        out.println( "Replaying against " + connectionString +
+                     (amplification.copies() > 1 ? String.format( ", %d copies of each session", amplification.copies() ) : "") );
+    }
+
+    /**
+     * The packets {@link #accept(Dict)} consults the clock for: those carrying a RUN, and the one closing a session that
+     * sent a RUN. Distributed workers show the clock these packets of every session, not just their own.
+     */
+    public static Predicate<Dict> clockedPackets()
+    {
+        Set<AnalyzedSession> running = new HashSet<>();
+        return packet -> {
+            AnalyzedSession session = packet.get( Fields.session );
+            if( session == null )
+            {
+                return false;
+            }
+            boolean clocked = false;
+            for ( Dict message : packet.get( Fields.messages, emptyList() ) )
+            {
+                if( message.get( Message.type ).equals( BoltMessageDescriber.MSG_RUN ) )
+                {
+                    running.add( session );
+                    clocked = true;
+                }
+            }
+            if( session.isClosed() && running.remove( session ) )
+            {
+                clocked = true;
+            }
+            return clocked;
+        };
+    }
+
+    @Override
+    public void accept( Dict packet )
+    {
+        AnalyzedSession session = packet.get( Fields.session );
+        if( session == null )
+        {
+            return;
+        }
+
+        for ( Dict query : packet.get( Fields.queries, emptyList() ) )
+        {
+            if( "SUCCESS".equals( query.get( Query.outcome ) ) )
+            {
+                latencies.captured( query.get( Message.statement ),
+                        clock.durationMicros( query.get( Query.finished ) - query.get( Query.started ) ) );
+            }
+        }
+
+        SessionReplay[] copies = sessions.get( session );
+        for ( Dict message : packet.get( Fields.messages, emptyList() ) )
+        {
+            if( !message.get( Message.type ).equals( BoltMessageDescriber.MSG_RUN ) )
+            {
+                continue;
+            }
+            if( copies == null )
+            {
+                copies = new SessionReplay[amplification.copies()];
+                for ( int copy = 0; copy < copies.length; copy++ )
+                {
+                    copies[copy] = new SessionReplay();
+                }
+                sessions.put( session, copies );
+            }
+            long dueNs = clock.dueNs( packet.get( Fields.timestamp ) );
+            for ( int copy = 0; copy < copies.length; copy++ )
+            {
+                copies[copy].submit( new Task( dueNs + amplification.offsetNs( copy ), message.get( Message.statement ),
+                        amplification.params( copy, message.get( Message.params ) ) ) );
+            }
+        }
+
+        if( copies != null && session.isClosed() )
+        {
+            sessions.remove( session );
+            long dueNs = clock.dueNs( packet.get( Fields.timestamp ) );
+            for ( int copy = 0; copy < copies.length; copy++ )
+            {
+                copies[copy].submit( new Task( dueNs + amplification.offsetNs( copy ), null, null ) );
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        // Sessions still open at the end of the capture are closed once their queries are done
+        for ( SessionReplay[] copies : sessions.values() )
+        {
+            for ( SessionReplay replay : copies )
+            {
+                replay.submit( new Task( System.nanoTime(), null, null ) );
+            }
+        }
+        sessions.clear();
+
+        queued.acquire( MAX_QUEUED );
+        timer.close();
+        workers.shutdown();
+        workers.awaitTermination( 1, TimeUnit.MINUTES );
+        driver.close();
+
+        out.println();
+        out.println( "Timer lateness, dispatch time minus captured offset (us):" );
+        out.println( "  " + timer.lateness().summary() );
+        out.println( "Start lateness, query start minus captured offset, including waiting for a worker (us):" );
+        startLateness.print( out, "  " );
+        out.println();
+        latencies.print( out );
+    }
+
+    private static AuthToken authToken( String connectionString )
+    {
+        String userInfo = URI.create( connectionString ).getUserInfo();
+        if( userInfo == null )
+        {
+            return AuthTokens.none();
+        }
+        String[] usernamePassword = userInfo.split( ":" );
+        return AuthTokens.basic( usernamePassword[0], usernamePassword[1] );
+    }
+
+    private static class Task
+    {
+        private final long dueNs;
+        /** Statement to run, or null to close the session */
+        private final String statement;
+        private final Map<String,Object> params;
+
+        Task( long dueNs, String statement, Map<String,Object> params )
+        {
+            this.dueNs = dueNs;
+            this.statement = statement;
+            this.params = params;
+        }
+    }
+
+    /** Runs the work of one captured session in order, one task at a time, borrowing a worker only while running */
+    private class SessionReplay
+    {
+        private final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private Session session;
+
+        void submit( Task task )
+        {
+            queued.acquireUninterruptibly();
+            tasks.add( task );
+            scheduleNext();
+        }
+
+        private void scheduleNext()
+        {
+            Task next = tasks.peek();
+            if( next == null || !scheduled.compareAndSet( false, true ) )
+            {
+                return;
+            }
+            if( next.dueNs > System.nanoTime() )
+            {
+                timer.schedule( next.dueNs, () -> workers.execute( this::runNext ) );
+            }
+            else
+            {
+                workers.execute( this::runNext );
+            }
+        }
+
+        private void runNext()
+        {
+            Task task = tasks.poll();
+            try
+            {
+                if( task.statement == null )
+                {
+                    if( session != null )
+                    {
+                        session.close();
+                        session = null;
+                    }
+                }
+                else
+                {
+                    long startNs = System.nanoTime();
+                    synchronized ( startLateness )
+                    {
+                        startLateness.record( Math.max( 0, startNs - task.dueNs ) / 1000 );
+                    }
+                    if( session == null )
+                    {
+                        session = driver.session();
+                    }
+                    session.run( task.statement, task.params ).consume();
+
+                    // With no captured timing to keep to, a query is due when its session got around to it
+                    long finishedNs = System.nanoTime();
+                    long dueNs = clock.isMax() ? startNs : task.dueNs;
+                    latencies.replayed( task.statement, (finishedNs - startNs) / 1000, (finishedNs - dueNs) / 1000 );
+                }
+            }
+            catch ( Exception e )
+            {
+                e.printStackTrace();
+            }
+            finally
+            {
+                queued.release();
+                scheduled.set( false );
+                // A task may have been added while this one ran, and found us still scheduled
+                scheduleNext();
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.tools.boltalyzer.Fields.Message;
+import org.neo4j.tools.boltalyzer.Fields.Query;
+import org.neo4j.tools.boltalyzer.stats.Fingerprint;
+import org.neo4j.tools.boltalyzer.stats.Histogram;
+import org.neo4j.tools.boltalyzer.stats.LatencyComparison;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+
+/**
+ * Replays the queries in a capture straight into an embedded database, with no Bolt, network or driver in between, to
+ * tell how much of a difference in query latency is down to the Cypher engine alone.
+ *
+ * The database is a copy of the given store, so the store itself is left as it was, and the copy is deleted when done.
+ * The store should not be in use by a running database while it is copied.
+ * Queries run one at a time in captured order, as fast as they complete; timing and concurrency are the business of the
+ * other replay engines. Each statement is first run with EXPLAIN, which parses and plans it without executing it, and
+ * then for real, which finds the plan in the query cache. The first is reported as planning time, the second as
+ * execution time, including consuming the whole result.
+ *
+ * The BEGIN, COMMIT and ROLLBACK statements drivers send for explicit transactions are not Cypher; they begin, commit and
+ * roll back a transaction of the session that sent them, which the queries of that session run in until it ends.
+ */
+public class EmbeddedReplay implements Boltalyzer.ClosableConsumer<Dict>
+{
+    private static final Set<String> TRANSACTION_CONTROL = new HashSet<>( asList( "BEGIN", "COMMIT", "ROLLBACK" ) );
+
+    private final PrintStream out;
+    private final LatencyComparison latencies;
+    private final long microsPerUnit;
+    private final Path copy;
+    private final GraphDatabaseService db;
+    private final Map<String,Timings> fingerprints = new TreeMap<>();
+    private final Map<AnalyzedSession,ExplicitTransaction> transactions = new HashMap<>();
+    private long queries;
+    private long failures;
+
+    /**
+     * @param store store directory to replay against a copy of; if it does not exist, the replay starts from an empty
+     *              database
+     * @param latencies where to record captured and replayed latency
+     * @param microsPerUnit unit of the packet timestamps, see {@link TimeMapper#microsPerUnit(String)}
+     */
+    public EmbeddedReplay( PrintStream out, Path store, LatencyComparison latencies, long microsPerUnit ) throws IOException
+    {
+        this.out = out;
+        this.latencies = latencies;
+        this.microsPerUnit = microsPerUnit;
+        this.copy = Files.createTempDirectory( "boltalyzer-embedded" );
+        if( Files.exists( store ) )
+        {
+            copyDirectory( store, copy );
+        }
+        this.db = new GraphDatabaseFactory().newEmbeddedDatabase( copy.toFile() );
+
+        out.println( "Replaying against a copy of " + store + " in " + copy );
+    }
+
+    @Override
+    public void accept( Dict packet )
+    {
+        for ( Dict query : packet.get( Fields.queries, emptyList() ) )
+        {
+            if( "SUCCESS".equals( query.get( Query.outcome ) ) && !TRANSACTION_CONTROL.contains( command( query ) ) )
+            {
+                latencies.captured( query.get( Message.statement ),
+                        (query.get( Query.finished ) - query.get( Query.started )) * microsPerUnit );
+            }
+        }
+
+        AnalyzedSession session = packet.get( Fields.session );
+        for ( Dict message : packet.get( Fields.messages, emptyList() ) )
+        {
+            if( !message.get( Message.type ).equals( BoltMessageDescriber.MSG_RUN ) )
+            {
+                continue;
+            }
+            String statement = message.get( Message.statement );
+            switch ( command( message ) )
+            {
+            case "BEGIN":
+                begin( session );
+                break;
+            case "COMMIT":
+                end( transactions.remove( session ), true );
+                break;
+            case "ROLLBACK":
+                end( transactions.remove( session ), false );
+                break;
+            default:
+                run( transactions.get( session ), statement, message.get( Message.params ) );
+            }
+        }
+
+        if( session != null && session.isClosed() )
+        {
+            end( transactions.remove( session ), false );
+        }
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        for ( ExplicitTransaction tx : transactions.values() )
+        {
+            end( tx, false );
+        }
+        db.shutdown();
+        try ( Stream<Path> files = Files.walk( copy ) )
+        {
+            files.sorted( Comparator.reverseOrder() ).forEach( path -> path.toFile().delete() );
+        }
+
+        out.println();
+        out.println( String.format( "Ran %d queries, %d failed", queries, failures ) );
+        out.println( "Planning and execution time per statement (us):" );
+        out.println( "queries\tfailures\tplanP50\tplanP99\texecP50\texecP99\texecMax\tfingerprint" );
+        fingerprints.forEach( ( fingerprint, t ) -> out.println( String.format( "%d\t%d\t%d\t%d\t%d\t%d\t%d\t%s",
+                t.execution.count(), t.failures, t.planning.percentile( 50 ), t.planning.percentile( 99 ),
+                t.execution.percentile( 50 ), t.execution.percentile( 99 ), t.execution.max(), fingerprint ) ) );
+        out.println();
+        latencies.print( out );
+    }
+
+    /** @param tx the explicit transaction to run in, or null to run in a transaction of its own */
+    private void run( ExplicitTransaction tx, String statement, Map<String,Object> params )
+    {
+        Timings timings = fingerprints.computeIfAbsent( Fingerprint.of( statement ), f -> new Timings() );
+        queries++;
+        try
+        {
+            Callable<long[]> execution = () -> {
+                long startNs = System.nanoTime();
+                db.execute( "EXPLAIN " + statement, params ).close();
+                long plannedNs = System.nanoTime();
+                db.execute( statement, params ).accept( row -> true );
+                long finishedNs = System.nanoTime();
+                return new long[]{(plannedNs - startNs) / 1000, (finishedNs - plannedNs) / 1000};
+            };
+            long[] micros = tx == null ? execution.call() : tx.on( execution );
+
+            long planUs = micros[0];
+            long execUs = micros[1];
+            timings.planning.record( planUs );
+            timings.execution.record( execUs );
+            latencies.replayed( statement, planUs + execUs, planUs + execUs );
+        }
+        catch ( Exception e )
+        {
+            failures++;
+            timings.failures++;
+            out.println( String.format( "%s: %s", Boltalyzer.ellipsis( statement, 80 ), e.getMessage() ) );
+        }
+    }
+
+    /** The statement of a RUN message or query description, upper cased, to tell the transaction statements apart */
+    private static String command( Dict message )
+    {
+        return message.get( Message.statement ).trim().toUpperCase();
+    }
+
+    private void begin( AnalyzedSession session )
+    {
+        end( transactions.remove( session ), false );
+        try
+        {
+            transactions.put( session, new ExplicitTransaction() );
+        }
+        catch ( Exception e )
+        {
+            out.println( "BEGIN: " + e.getMessage() );
+        }
+    }
+
+    /** Commit or roll back an explicit transaction; a failure to commit is reported, but is not a failed query */
+    private void end( ExplicitTransaction tx, boolean commit )
+    {
+        if( tx == null )
+        {
+            return;
+        }
+        try
+        {
+            tx.end( commit );
+        }
+        catch ( Exception e )
+        {
+            out.println( String.format( "%s: %s", commit ? "COMMIT" : "ROLLBACK", e.getMessage() ) );
+        }
+    }
+
+    private static void copyDirectory( Path from, Path to ) throws IOException
+    {
+        try ( Stream<Path> files = Files.walk( from ) )
+        {
+            files.forEach( source -> {
+                try
+                {
+                    Path target = to.resolve( from.relativize( source ).toString() );
+                    if( Files.isDirectory( source ) )
+                    {
+                        Files.createDirectories( target );
+                    }
+                    else
+                    {
+                        Files.copy( source, target, StandardCopyOption.REPLACE_EXISTING );
+                    }
+                }
+                catch ( IOException e )
+                {
+                    throw new UncheckedIOException( e );
+                }
+            } );
+        }
+    }
+
+    /**
+     * An explicit transaction of a captured session. Embedded transactions belong to the thread that began them, and
+     * sessions interleave, so each gets a thread of its own; queries are still run one at a time, waiting on that thread.
+     */
+    private class ExplicitTransaction
+    {
+        private final ExecutorService thread = Executors.newSingleThreadExecutor();
+        private final Transaction tx;
+
+        ExplicitTransaction() throws Exception
+        {
+            try
+            {
+                this.tx = on( db::beginTx );
+            }
+            catch ( Exception e )
+            {
+                thread.shutdown();
+                throw e;
+            }
+        }
+
+        <T> T on( Callable<T> work ) throws Exception
+        {
+            try
+            {
+                return thread.submit( work ).get();
+            }
+            catch ( ExecutionException e )
+            {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        void end( boolean commit ) throws Exception
+        {
+            try
+            {
+                on( () -> {
+                    if( commit )
+                    {
+                        tx.success();
+                    }
+                    else
+                    {
+                        tx.failure();
+                    }
+                    tx.close();
+                    return null;
+                } );
+            }
+            finally
+            {
+                thread.shutdown();
+            }
+        }
+    }
+
+    private static class Timings
+    {
+        private final Histogram planning = new Histogram();
+        private final Histogram execution = new Histogram();
+        private long failures;
+    }
+}
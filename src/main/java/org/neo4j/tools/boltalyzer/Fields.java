@@ -24,6 +24,7 @@ import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 
+import org.neo4j.bolt.v1.runtime.spi.Record;
 import org.neo4j.kernel.api.exceptions.Status;
 
 import static org.neo4j.tools.boltalyzer.Field.field;
@@ -36,20 +37,76 @@ public class Fields
     public static final Field<Integer> srcPort = field( "srcPort" );
     public static final Field<InetAddress> dst = field( "dst" );
     public static final Field<Integer> dstPort = field( "dstPort" );
+    /** TCP control bits, see {@link PCAPParser#TCP_FIN} and friends */
+    public static final Field<Integer> tcpFlags = field( "tcpFlags" );
+    /** TCP sequence number of the first byte in this segment, as an unsigned 32-bit value */
+    public static final Field<Long> tcpSeq = field( "tcpSeq" );
+    /** TCP acknowledgement number, only meaningful if {@link PCAPParser#TCP_ACK} is set in {@link #tcpFlags} */
+    public static final Field<Long> tcpAck = field( "tcpAck" );
+    /** TCP receive window as advertised in the header, without any window scaling applied */
+    public static final Field<Integer> tcpWindow = field( "tcpWindow" );
     public static final Field<ByteBuffer> payload = field( "raw" );
+    /** Size of the TCP payload in this packet */
+    public static final Field<Integer> payloadSize = field( "payloadSize" );
+    /** Size of the whole frame as it went over the wire, including link, IP and TCP headers */
+    public static final Field<Integer> frameSize = field( "frameSize" );
+    /** Bolt bytes sent by the client in this packet, with any websocket framing removed */
+    public static final Field<ByteBuffer> clientBolt = field( "clientBolt" );
     public static final Field<String> connectionKey = field( "connectionKey" );
     public static final Field<List<Dict>> messages = field( "description" );
     public static final Field<AnalyzedSession> session = field( "session" );
     public static final Field<String> logicalSource = field( "logicalSource" );
+    /** Queries whose final response arrived in this packet, see {@link QueryTracker} */
+    public static final Field<List<Dict>> queries = field( "queries" );
+    /** Queries in this packets session that have been sent but not completed, as of this packet, see {@link QueryTracker} */
+    public static final Field<Integer> queriesInFlight = field( "queriesInFlight" );
+    /** Requests of any kind in this packets session that the server has not yet responded to, see {@link QueryTracker} */
+    public static final Field<Integer> requestsInFlight = field( "requestsInFlight" );
 
     public static class Message {
         public static final Field<String> type = field("type");
         public static final Field<String> statement = field("statement");
         public static final Field<Map<String, Object>> params = field("params");
         public static final Field<Long> queryNo = field("queryNo");
-        public static final Field<Object[]> fields = field("fields");
+        /** Fields of a RECORD, usually a {@link org.neo4j.tools.boltalyzer.bolt1.PackedRecord} that has not been unpacked */
+        public static final Field<Record> fields = field("fields");
         public static final Field<Map<String, Object>> metadata = field("meta");
         public static final Field<Status> status = field("status");
         public static final Field<String> message = field("message");
+        /** True if the capture cut this message short, so only its type and framing are known */
+        public static final Field<Boolean> truncated = field("truncated");
+
+        // How the message was framed on the wire; these are not serialized as part of the message itself
+        /** Bytes the message took up in the Bolt stream, including chunk headers and the end-of-message marker */
+        public static final Field<Integer> size = field("wireSize");
+        /** Size of each chunk the message was split into */
+        public static final Field<int[]> chunks = field("wireChunks");
+        /** Number of transport segments the message was spread over */
+        public static final Field<Integer> segments = field("wireSegments");
+    }
+
+    /**
+     * Describes a query from RUN to the final response of its PULL_ALL or DISCARD_ALL, see {@link QueryTracker}.
+     * Query descriptions also carry {@link Fields#session} and the statement, params and queryNo {@link Message} fields.
+     */
+    public static class Query {
+        /** Time of the packet carrying the RUN message */
+        public static final Field<Long> started = field("started");
+        /** {@link Fields#timeString} of the packet carrying the RUN message */
+        public static final Field<String> startedString = field("startedString");
+        /** Time of the packet carrying the server response to the RUN message */
+        public static final Field<Long> firstResponse = field("firstResponse");
+        /** Time of the packet carrying the first RECORD, if any */
+        public static final Field<Long> firstRecord = field("firstRecord");
+        /** Time of the packet carrying the final response to the PULL_ALL or DISCARD_ALL */
+        public static final Field<Long> finished = field("finished");
+        public static final Field<Long> records = field("records");
+        /** Sum of {@link Message#size} of all RECORD messages */
+        public static final Field<Long> resultBytes = field("resultBytes");
+        public static final Field<Integer> largestRecord = field("largestRecord");
+        /** SUCCESS, FAILURE or IGNORED */
+        public static final Field<String> outcome = field("outcome");
+        /** Set if the outcome was FAILURE */
+        public static final Field<Status> status = field("status");
     }
 }
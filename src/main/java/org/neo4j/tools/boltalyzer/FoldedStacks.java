@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.neo4j.tools.boltalyzer.Fields.Message;
+import org.neo4j.tools.boltalyzer.Fields.Query;
+import org.neo4j.tools.boltalyzer.stats.Fingerprint;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Sums up query time as folded stacks, the input format of flamegraph.pl and most other flame graph tools, so the
+ * graph shows which kinds of query, from which applications, take up the database's time:
+ *
+ * <pre>
+ * clientHost;userAgent;fingerprint;phase microseconds
+ * </pre>
+ *
+ * The phase is run, from RUN until the server responds to it, or stream, from there until the final response of the
+ * PULL_ALL or DISCARD_ALL. Queries that failed or were ignored count as failed for their whole duration, and queries
+ * whose responses a truncated capture cut off count as uncaptured. Stacks are summed in memory and printed when the
+ * capture has been read.
+ */
+public class FoldedStacks implements Boltalyzer.ClosableConsumer<Dict>
+{
+    private final PrintStream out;
+    private final long microsPerUnit;
+    private final Map<String,long[]> stacks = new HashMap<>();
+
+    /** @param microsPerUnit unit of the packet timestamps, see {@link TimeMapper#microsPerUnit(String)} */
+    public FoldedStacks( PrintStream out, long microsPerUnit )
+    {
+        this.out = out;
+        this.microsPerUnit = microsPerUnit;
+    }
+
+    @Override
+    public void accept( Dict packet )
+    {
+        for ( Dict query : packet.get( Fields.queries, emptyList() ) )
+        {
+            AnalyzedSession session = query.get( Fields.session );
+            String prefix = frame( session.clientHost() ) + ";" + frame( session.userAgent() ) + ";" +
+                            frame( Fingerprint.of( query.get( Message.statement ) ) ) + ";";
+
+            long started = query.get( Query.started );
+            long finished = query.get( Query.finished );
+            if( "SUCCESS".equals( query.get( Query.outcome ) ) )
+            {
+                long response = query.get( Query.firstResponse, started );
+                add( prefix + "run", response - started );
+                add( prefix + "stream", finished - response );
+            }
+            else if( QueryTracker.NOT_CAPTURED.equals( query.get( Query.outcome ) ) )
+            {
+                add( prefix + "uncaptured", finished - started );
+            }
+            else
+            {
+                add( prefix + "failed", finished - started );
+            }
+        }
+    }
+
+    private void add( String stack, long duration )
+    {
+        stacks.computeIfAbsent( stack, s -> new long[1] )[0] += duration * microsPerUnit;
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        new TreeMap<>( stacks ).forEach( ( stack, micros ) -> {
+            if( micros[0] > 0 )
+            {
+                out.println( stack + " " + micros[0] );
+            }
+        } );
+    }
+
+    /** Semicolons separate frames, so they can't be part of one */
+    private static String frame( String name )
+    {
+        return name.replace( ';', ',' );
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.kernel.api.exceptions.Status;
+import org.neo4j.tools.boltalyzer.Fields.Message;
+import org.neo4j.tools.boltalyzer.Fields.Query;
+import org.neo4j.tools.boltalyzer.stats.Fingerprint;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+
+import static java.util.Collections.emptyList;
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+/**
+ * Loads the traffic in a capture into a new Neo4j store, to explore it with Cypher:
+ *
+ * <pre>
+ * (:Client {host})-[:OPENED]->(:Session {name, websocket})-[:RAN]->(:Query)-[:INSTANCE_OF]->(:Fingerprint {text})
+ * (:Query)-[:NEXT]->(:Query)    the next query completed in the same session
+ * </pre>
+ *
+ * Queries have queryNo, statement, started and latency (microseconds), records, resultBytes, outcome and, if they
+ * failed, status. Fingerprints have the statement with literals replaced by ?, how many times it ran, and the total
+ * latency of those runs.
+ *
+ * The store is written with a batch inserter, which writes records straight to the store files, with no transactions
+ * and no transaction log; this is what makes millions of queries load in minutes, but it means the store must not be
+ * in use by a database, and is unusable if the import is cut short. Indexes on Client(host), Session(name) and
+ * Fingerprint(text) are built the first time a database is started on the store.
+ */
+public class GraphImport implements Boltalyzer.ClosableConsumer<Dict>
+{
+    private static final Label CLIENT = Label.label( "Client" );
+    private static final Label SESSION = Label.label( "Session" );
+    private static final Label QUERY = Label.label( "Query" );
+    private static final Label FINGERPRINT = Label.label( "Fingerprint" );
+    private static final RelationshipType OPENED = RelationshipType.withName( "OPENED" );
+    private static final RelationshipType RAN = RelationshipType.withName( "RAN" );
+    private static final RelationshipType NEXT = RelationshipType.withName( "NEXT" );
+    private static final RelationshipType INSTANCE_OF = RelationshipType.withName( "INSTANCE_OF" );
+
+    private final PrintStream out;
+    private final Path store;
+    private final long microsPerUnit;
+    private final BatchInserter inserter;
+    private final Map<String,Long> clients = new HashMap<>();
+    /** Sessions still open, with the node of each and of the last query it completed */
+    private final Map<AnalyzedSession,long[]> sessions = new HashMap<>();
+    private final Map<String,FingerprintNode> fingerprints = new HashMap<>();
+    private long sessionCount;
+    private long queries;
+
+    /**
+     * @param store directory of the store to create
+     * @param microsPerUnit unit of the packet timestamps, see {@link TimeMapper#microsPerUnit(String)}
+     */
+    public GraphImport( PrintStream out, Path store, long microsPerUnit ) throws IOException
+    {
+        this.out = out;
+        this.store = store;
+        this.microsPerUnit = microsPerUnit;
+        this.inserter = BatchInserters.inserter( store.toFile() );
+        inserter.createDeferredSchemaIndex( CLIENT ).on( "host" ).create();
+        inserter.createDeferredSchemaIndex( SESSION ).on( "name" ).create();
+        inserter.createDeferredSchemaIndex( FINGERPRINT ).on( "text" ).create();
+    }
+
+    @Override
+    public void accept( Dict packet )
+    {
+        AnalyzedSession session = packet.get( Fields.session );
+        if( session == null )
+        {
+            return;
+        }
+
+        for ( Dict query : packet.get( Fields.queries, emptyList() ) )
+        {
+            long[] nodes = sessions.computeIfAbsent( session, this::createSession );
+            long node = createQuery( query );
+            inserter.createRelationship( nodes[0], node, RAN, null );
+            if( nodes[1] != -1 )
+            {
+                inserter.createRelationship( nodes[1], node, NEXT, null );
+            }
+            nodes[1] = node;
+        }
+
+        if( session.isClosed() )
+        {
+            sessions.remove( session );
+        }
+    }
+
+    private long[] createSession( AnalyzedSession session )
+    {
+        String host = session.clientHost();
+        long client = clients.computeIfAbsent( host, h -> inserter.createNode( map( "host", h ), CLIENT ) );
+        long node = inserter.createNode( map( "name", session.name(), "websocket", session.isWebsocket() ), SESSION );
+        inserter.createRelationship( client, node, OPENED, null );
+        sessionCount++;
+        return new long[]{node, -1};
+    }
+
+    private long createQuery( Dict query )
+    {
+        String statement = query.get( Message.statement );
+        long latencyUs = (query.get( Query.finished ) - query.get( Query.started )) * microsPerUnit;
+        Map<String,Object> properties = map(
+                "queryNo", query.get( Message.queryNo ),
+                "statement", statement,
+                "started", query.get( Query.started ) * microsPerUnit,
+                "latency", latencyUs,
+                "records", query.get( Query.records ),
+                "resultBytes", query.get( Query.resultBytes ),
+                "outcome", query.get( Query.outcome ) );
+        Status status = query.get( Query.status );
+        if( status != null )
+        {
+            properties.put( "status", status.code().serialize() );
+        }
+        long node = inserter.createNode( properties, QUERY );
+
+        String text = Fingerprint.of( statement );
+        FingerprintNode fingerprint = fingerprints.get( text );
+        if( fingerprint == null )
+        {
+            fingerprint = new FingerprintNode( inserter.createNode( map( "text", text ), FINGERPRINT ) );
+            fingerprints.put( text, fingerprint );
+        }
+        fingerprint.executions++;
+        fingerprint.totalLatencyUs += latencyUs;
+        inserter.createRelationship( node, fingerprint.node, INSTANCE_OF, null );
+
+        queries++;
+        return node;
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        for ( FingerprintNode fingerprint : fingerprints.values() )
+        {
+            inserter.setNodeProperty( fingerprint.node, "executions", fingerprint.executions );
+            inserter.setNodeProperty( fingerprint.node, "totalLatency", fingerprint.totalLatencyUs );
+        }
+        inserter.shutdown();
+
+        out.println( String.format( "Imported %d queries in %d sessions from %d clients, with %d distinct fingerprints, into %s",
+                queries, sessionCount, clients.size(), fingerprints.size(), store ) );
+    }
+
+    private static class FingerprintNode
+    {
+        private final long node;
+        private long executions;
+        private long totalLatencyUs;
+
+        FingerprintNode( long node )
+        {
+            this.node = node;
+        }
+    }
+}
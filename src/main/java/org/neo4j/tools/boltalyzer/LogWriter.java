@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.util.MinimalPrettyPrinter;
+import org.neo4j.tools.boltalyzer.serialize.Bolt2JSON;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Writes the play-by-play of the log command: a line per packet with its time, session and source, followed by each
+ * message in it as JSON, one message per line.
+ *
+ * Packets are streamed by a single generator into a large buffer, which is written out in one go whenever it fills
+ * up, every second, and when the log is closed or the JVM exits. With the channel being stdout, this means one write
+ * per megabyte or so rather than one per packet, while output still shows up promptly when following a live capture
+ * that goes quiet, and is not lost when it is stopped with Ctrl-C. Writes and flushes happen under the lock of the
+ * generator, which is only ever contended once a second.
+ */
+public class LogWriter implements Boltalyzer.ClosableConsumer<Dict>
+{
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final long FLUSH_INTERVAL_MS = TimeUnit.SECONDS.toMillis( 1 );
+
+    private final WritableByteChannel channel;
+    private final boolean closeChannel;
+    private final ByteBuffer block = ByteBuffer.allocate( BLOCK_SIZE );
+    private final JsonGenerator generator;
+    private final Timer flusher = new Timer( "boltalyzer-log-flusher", true );
+    private final Thread flushOnExit = new Thread( this::flush, "boltalyzer-log-exit-flush" );
+
+    /**
+     * @param channel where to write the log
+     * @param closeChannel close the channel when the log is closed; false for stdout
+     */
+    public LogWriter( WritableByteChannel channel, boolean closeChannel )
+    {
+        this.channel = channel;
+        this.closeChannel = closeChannel;
+        try
+        {
+            this.generator = Bolt2JSON.streamingMapper().getJsonFactory()
+                    .createJsonGenerator( new BlockOutputStream(), JsonEncoding.UTF8 );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+        // Messages are separated by the newline written after each, not by the default space
+        generator.setPrettyPrinter( new MinimalPrettyPrinter( "" ) );
+
+        flusher.schedule( new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                flush();
+            }
+        }, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS );
+        Runtime.getRuntime().addShutdownHook( flushOnExit );
+    }
+
+    @Override
+    public void accept( Dict packet )
+    {
+        synchronized ( generator )
+        {
+            write( packet );
+        }
+    }
+
+    private void write( Dict packet )
+    {
+        try
+        {
+            generator.writeRaw( packet.get( Fields.timeString ) );
+            generator.writeRaw( '\t' );
+            generator.writeRaw( packet.get( Fields.session ).name() );
+            generator.writeRaw( '\t' );
+            generator.writeRaw( packet.get( Fields.logicalSource ) );
+            generator.writeRaw( '\t' );
+            List<Dict> messages = packet.get( Fields.messages, emptyList() );
+            for ( int i = 0; i < messages.size(); i++ )
+            {
+                if( i > 0 )
+                {
+                    generator.writeRaw( '\n' );
+                }
+                generator.writeObject( messages.get( i ) );
+            }
+            generator.writeRaw( '\n' );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    private void flush()
+    {
+        synchronized ( generator )
+        {
+            try
+            {
+                generator.flush();
+            }
+            catch ( IOException e )
+            {
+                // Nothing sensible to do from the timer or a shutdown hook; close() flushes again and reports it
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        flusher.cancel();
+        try
+        {
+            Runtime.getRuntime().removeShutdownHook( flushOnExit );
+        }
+        catch ( IllegalStateException e )
+        {
+            // Closed as part of shutting down, the hook flushes as well
+        }
+        synchronized ( generator )
+        {
+            generator.flush();
+        }
+        if( closeChannel )
+        {
+            channel.close();
+        }
+    }
+
+    /** Gathers what the generator writes into blocks, and writes each block to the channel once it is full */
+    private class BlockOutputStream extends OutputStream
+    {
+        @Override
+        public void write( int b ) throws IOException
+        {
+            if( !block.hasRemaining() )
+            {
+                writeBlock();
+            }
+            block.put( (byte) b );
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) throws IOException
+        {
+            while( len > 0 )
+            {
+                if( !block.hasRemaining() )
+                {
+                    writeBlock();
+                }
+                int n = Math.min( len, block.remaining() );
+                block.put( b, off, n );
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            writeBlock();
+        }
+
+        private void writeBlock() throws IOException
+        {
+            block.flip();
+            while( block.hasRemaining() )
+            {
+                channel.write( block );
+            }
+            block.clear();
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.neo4j.kernel.api.exceptions.Status;
+import org.neo4j.tools.boltalyzer.Fields.Message;
+import org.neo4j.tools.boltalyzer.Fields.Query;
+import org.neo4j.tools.boltalyzer.stats.Fingerprint;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Serves metrics about the Bolt traffic seen so far on an HTTP /metrics endpoint, in the Prometheus text format, so a
+ * live capture piped in from tcpdump gives database metrics from the wire:
+ *
+ * <pre>
+ * bolt_queries_total{fingerprint,outcome}        queries completed; rate() of this is queries per second
+ * bolt_query_duration_seconds{fingerprint}       histogram of RUN until the final response
+ * bolt_query_failures_total{code}                failed queries by status code
+ * bolt_bytes_total{sender}                       TCP payload bytes sent by clients and by servers
+ * bolt_sessions_total, bolt_sessions_active      sessions opened, and sessions not yet closed
+ * </pre>
+ *
+ * Packets are decoded on one thread and scrapes are served on another, and neither ever waits for the other: all
+ * values are only ever written by the decode thread, which publishes them with ordered stores rather than locks or
+ * compare-and-set, and scrapes read whatever has been published. A scrape may see one query counted but not yet
+ * timed, never a histogram whose buckets don't add up.
+ *
+ * Fingerprints beyond the first maxFingerprints are counted as "other", to keep the number of series bounded when
+ * clients send literals rather than parameters.
+ */
+public class MetricsEndpoint implements Boltalyzer.ClosableConsumer<Dict>
+{
+    /** Upper bounds of the latency histogram buckets, in microseconds; the last bucket is +Inf */
+    private static final long[] BUCKETS = {500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000, 10_000_000};
+    /** Longer fingerprints are cut short in labels; fingerprints that are the same up to here share series */
+    private static final int MAX_LABEL_LENGTH = 200;
+    private static final String OTHER = "other";
+
+    private final PrintStream out;
+    private final long microsPerUnit;
+    private final int maxFingerprints;
+    private final HttpServer server;
+
+    private final Family<Counter> queries = new Family<>( Counter::new, "fingerprint", "outcome" );
+    private final Family<Histogram> durations = new Family<>( Histogram::new, "fingerprint" );
+    private final Family<Counter> failures = new Family<>( Counter::new, "code" );
+    private final Family<Counter> bytes = new Family<>( Counter::new, "sender" );
+    private final Counter sessionsOpened = new Counter();
+    private final Counter sessionsActive = new Counter();
+    private final AtomicLong scrapes = new AtomicLong();
+
+    /** Only touched by the decode thread */
+    private final Set<AnalyzedSession> openSessions = Collections.newSetFromMap( new HashMap<>() );
+    private final Map<String,String> fingerprintLabels = new HashMap<>();
+
+    /**
+     * @param port where to serve /metrics, or 0 for any free port, see {@link #port()}
+     * @param maxFingerprints how many distinct fingerprints get series of their own
+     * @param microsPerUnit unit of the packet timestamps, see {@link TimeMapper#microsPerUnit(String)}
+     */
+    public MetricsEndpoint( PrintStream out, int port, int maxFingerprints, long microsPerUnit ) throws IOException
+    {
+        this.out = out;
+        this.maxFingerprints = maxFingerprints;
+        this.microsPerUnit = microsPerUnit;
+        this.server = HttpServer.create( new InetSocketAddress( port ), 0 );
+        this.server.createContext( "/metrics", this::scrape );
+        this.server.start();
+
+        out.println( "Serving metrics on http://localhost:" + port() + "/metrics" );
+    }
+
+    public int port()
+    {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void accept( Dict packet )
+    {
+        AnalyzedSession session = packet.get( Fields.session );
+        if( session == null )
+        {
+            return;
+        }
+
+        String source = packet.get( Fields.logicalSource );
+        if( "Client".equals( source ) || "Server".equals( source ) )
+        {
+            bytes.get( source.toLowerCase() ).add( packet.get( Fields.payloadSize, 0 ) );
+        }
+
+        if( session.isClosed() )
+        {
+            if( openSessions.remove( session ) )
+            {
+                sessionsActive.add( -1 );
+            }
+        }
+        else if( openSessions.add( session ) )
+        {
+            sessionsOpened.add( 1 );
+            sessionsActive.add( 1 );
+        }
+
+        for ( Dict query : packet.get( Fields.queries, emptyList() ) )
+        {
+            String fingerprint = fingerprintLabel( query.get( Message.statement ) );
+            String outcome = query.get( Query.outcome );
+            queries.get( fingerprint, outcome ).add( 1 );
+
+            // A query whose responses were not captured did not finish when we lost track of it
+            if( !QueryTracker.NOT_CAPTURED.equals( outcome ) )
+            {
+                durations.get( fingerprint ).record( (query.get( Query.finished ) - query.get( Query.started )) * microsPerUnit );
+            }
+
+            Status status = query.get( Query.status );
+            if( status != null )
+            {
+                failures.get( status.code().serialize() ).add( 1 );
+            }
+        }
+    }
+
+    private String fingerprintLabel( String statement )
+    {
+        String fingerprint = Fingerprint.of( statement );
+        String label = fingerprintLabels.get( fingerprint );
+        if( label == null )
+        {
+            // Once full, fingerprints are not remembered either, or a long running capture would grow without bound
+            if( fingerprintLabels.size() >= maxFingerprints )
+            {
+                return OTHER;
+            }
+            label = fingerprint.length() > MAX_LABEL_LENGTH ? fingerprint.substring( 0, MAX_LABEL_LENGTH ) + "..." : fingerprint;
+            fingerprintLabels.put( fingerprint, label );
+        }
+        return label;
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        server.stop( 0 );
+        out.println( String.format( "Capture ended after %d sessions, served %d scrapes", sessionsOpened.value(), scrapes.get() ) );
+    }
+
+    private void scrape( HttpExchange exchange ) throws IOException
+    {
+        byte[] body = render().getBytes( StandardCharsets.UTF_8 );
+        exchange.getResponseHeaders().set( "Content-Type", "text/plain; version=0.0.4; charset=utf-8" );
+        exchange.sendResponseHeaders( 200, body.length );
+        try ( OutputStream response = exchange.getResponseBody() )
+        {
+            response.write( body );
+        }
+        scrapes.incrementAndGet();
+    }
+
+    /** The current values in the Prometheus text exposition format; safe to call from any thread */
+    String render()
+    {
+        StringBuilder sb = new StringBuilder();
+        header( sb, "bolt_queries_total", "counter", "Queries completed, from RUN to the final response of PULL_ALL or DISCARD_ALL." );
+        queries.forEach( ( labels, counter ) -> sample( sb, "bolt_queries_total", labels, counter.value() ) );
+
+        header( sb, "bolt_query_duration_seconds", "histogram", "Time from RUN to the final response, as seen on the wire." );
+        durations.forEach( ( labels, histogram ) -> histogram.render( sb, "bolt_query_duration_seconds", labels ) );
+
+        header( sb, "bolt_query_failures_total", "counter", "Queries that failed, by status code." );
+        failures.forEach( ( labels, counter ) -> sample( sb, "bolt_query_failures_total", labels, counter.value() ) );
+
+        header( sb, "bolt_bytes_total", "counter", "TCP payload bytes, by which side of the connection sent them." );
+        bytes.forEach( ( labels, counter ) -> sample( sb, "bolt_bytes_total", labels, counter.value() ) );
+
+        header( sb, "bolt_sessions_total", "counter", "Bolt sessions seen." );
+        sample( sb, "bolt_sessions_total", "", sessionsOpened.value() );
+        header( sb, "bolt_sessions_active", "gauge", "Bolt sessions seen and not yet closed." );
+        sample( sb, "bolt_sessions_active", "", sessionsActive.value() );
+        return sb.toString();
+    }
+
+    private static void header( StringBuilder sb, String name, String type, String help )
+    {
+        sb.append( "# HELP " ).append( name ).append( ' ' ).append( help ).append( '\n' );
+        sb.append( "# TYPE " ).append( name ).append( ' ' ).append( type ).append( '\n' );
+    }
+
+    private static void sample( StringBuilder sb, String name, String labels, Object value )
+    {
+        sb.append( name );
+        if( !labels.isEmpty() )
+        {
+            sb.append( '{' ).append( labels ).append( '}' );
+        }
+        sb.append( ' ' ).append( value ).append( '\n' );
+    }
+
+    /** A value written by the decode thread only, so it can be updated with a plain ordered store */
+    private static class Counter
+    {
+        private final AtomicLong value = new AtomicLong();
+
+        void add( long delta )
+        {
+            value.lazySet( value.get() + delta );
+        }
+
+        long value()
+        {
+            return value.get();
+        }
+    }
+
+    private static class Histogram
+    {
+        /** Count per bucket, not cumulative, followed by the sum of all observations in microseconds */
+        private final AtomicLongArray counts = new AtomicLongArray( BUCKETS.length + 2 );
+
+        void record( long micros )
+        {
+            int bucket = 0;
+            while( bucket < BUCKETS.length && micros > BUCKETS[bucket] )
+            {
+                bucket++;
+            }
+            int sum = BUCKETS.length + 1;
+            counts.lazySet( sum, counts.get( sum ) + micros );
+            counts.lazySet( bucket, counts.get( bucket ) + 1 );
+        }
+
+        void render( StringBuilder sb, String name, String labels )
+        {
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            long cumulative = 0;
+            for ( int i = 0; i <= BUCKETS.length; i++ )
+            {
+                cumulative += counts.get( i );
+                String le = i < BUCKETS.length ? BigDecimal.valueOf( BUCKETS[i], 6 ).stripTrailingZeros().toPlainString() : "+Inf";
+                sample( sb, name + "_bucket", prefix + "le=\"" + le + "\"", cumulative );
+            }
+            sample( sb, name + "_sum", labels, counts.get( BUCKETS.length + 1 ) / 1_000_000.0 );
+            sample( sb, name + "_count", labels, cumulative );
+        }
+    }
+
+    /**
+     * Series of one metric, by label values. The decode thread looks series up in a map of its own, and publishes new
+     * series to scrapes by replacing the list they read, so scrapes never see a map being modified.
+     */
+    private static class Family<T>
+    {
+        private final Supplier<T> factory;
+        private final String[] labelNames;
+        private final Map<List<String>,T> byLabels = new HashMap<>();
+        private volatile List<Map.Entry<String,T>> published = emptyList();
+
+        Family( Supplier<T> factory, String... labelNames )
+        {
+            this.factory = factory;
+            this.labelNames = labelNames;
+        }
+
+        /** Only called by the decode thread */
+        T get( String... labelValues )
+        {
+            List<String> key = Arrays.asList( labelValues );
+            T series = byLabels.get( key );
+            if( series == null )
+            {
+                series = factory.get();
+                byLabels.put( key, series );
+
+                StringBuilder labels = new StringBuilder();
+                for ( int i = 0; i < labelNames.length; i++ )
+                {
+                    labels.append( i == 0 ? "" : "," ).append( labelNames[i] ).append( "=\"" ).append( escape( labelValues[i] ) ).append( '"' );
+                }
+                List<Map.Entry<String,T>> next = new ArrayList<>( published );
+                next.add( new AbstractMap.SimpleImmutableEntry<>( labels.toString(), series ) );
+                published = next;
+            }
+            return series;
+        }
+
+        /** Safe to call from any thread */
+        void forEach( BiConsumer<String,T> action )
+        {
+            for ( Map.Entry<String,T> entry : published )
+            {
+                action.accept( entry.getKey(), entry.getValue() );
+            }
+        }
+
+        private static String escape( String value )
+        {
+            return value.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ).replace( "\n", "\\n" );
+        }
+    }
+}
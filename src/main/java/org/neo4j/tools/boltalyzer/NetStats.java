@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.neo4j.tools.boltalyzer.stats.Histogram;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Summarises how efficiently the network is used: how Bolt messages are chunked, how messages map onto TCP segments,
+ * how much of what goes over the wire is headers rather than payload, and whether either side is sending storms of
+ * tiny segments - the typical sign of a driver flushing once per message, or of Nagle's algorithm holding segments back.
+ */
+public class NetStats implements Boltalyzer.ClosableConsumer<Dict>
+{
+    /** Delayed ACK timers are usually 40ms, so a tiny follow-up segment delayed by roughly that much is likely Nagle */
+    private static final long NAGLE_MIN_GAP_US = 30_000;
+    private static final long NAGLE_MAX_GAP_US = 250_000;
+
+    private final PrintStream out;
+    private final int tinySegmentBytes;
+    private final int stormLength;
+    private final long nagleMinGap;
+    private final long nagleMaxGap;
+
+    private final Map<AnalyzedSession,SessionStats> sessions = new LinkedHashMap<>();
+
+    /**
+     * @param tinySegmentBytes TCP segments with a payload smaller than this are considered tiny
+     * @param stormLength this many tiny segments in a row in the same direction counts as a storm
+     * @param microsPerUnit unit of the packet timestamps, see {@link TimeMapper#microsPerUnit(String)}
+     */
+    public NetStats( PrintStream out, int tinySegmentBytes, int stormLength, long microsPerUnit )
+    {
+        this.out = out;
+        this.tinySegmentBytes = tinySegmentBytes;
+        this.stormLength = stormLength;
+        this.nagleMinGap = NAGLE_MIN_GAP_US / microsPerUnit;
+        this.nagleMaxGap = NAGLE_MAX_GAP_US / microsPerUnit;
+    }
+
+    @Override
+    public void accept( Dict packet )
+    {
+        AnalyzedSession session = packet.get( Fields.session );
+        if( session == null )
+        {
+            return;
+        }
+        SessionStats stats = sessions.computeIfAbsent( session, SessionStats::new );
+        String source = packet.get( Fields.logicalSource );
+        DirectionStats direction = stats.directions.computeIfAbsent( source, s -> new DirectionStats() );
+
+        boolean sameDirectionAsLastData = source.equals( stats.lastDataSource );
+        if( direction.record( packet, sameDirectionAsLastData ) )
+        {
+            stats.lastDataSource = source;
+        }
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        Map<String,DirectionStats> totals = new LinkedHashMap<>();
+
+        out.println( "session\tsource\tsegments\tdataSegments\tframeBytes\tpayloadBytes\theaderOverhead\tboltFraming" +
+                     "\twsFraming\tmessages\tmsgsPerSegment\tsegmentsPerMessage\tchunkSizeP50\tchunkSizeMax" +
+                     "\ttinySegments\tstorms\tnagleStalls" );
+        for ( SessionStats stats : sessions.values() )
+        {
+            for ( Map.Entry<String,DirectionStats> entry : stats.directions.entrySet() )
+            {
+                String source = entry.getKey();
+                DirectionStats d = entry.getValue();
+                if( source.equals( "Client" ) )
+                {
+                    d.websocketFraming = stats.session.clientWebsocketOverhead();
+                }
+                else if( source.equals( "Server" ) )
+                {
+                    d.websocketFraming = stats.session.serverWebsocketOverhead();
+                }
+
+                out.println( String.format( "%s\t%s\t%d\t%d\t%d\t%d\t%.1f%%\t%d\t%d\t%d\t%.2f\t%d\t%d\t%d\t%d\t%d\t%d",
+                        stats.session.name(), source, d.segments, d.dataSegments, d.frameBytes, d.payloadBytes,
+                        percent( d.frameBytes - d.payloadBytes, d.frameBytes ), d.boltFraming, d.websocketFraming,
+                        d.messages, d.messagesPerSegment.mean(), d.segmentsPerMessage.max(),
+                        d.chunkSizes.percentile( 50 ), d.chunkSizes.max(),
+                        d.tinySegments, d.storms, d.nagleStalls ) );
+
+                totals.computeIfAbsent( source, s -> new DirectionStats() ).add( d );
+            }
+        }
+
+        for ( Map.Entry<String,DirectionStats> entry : totals.entrySet() )
+        {
+            DirectionStats d = entry.getValue();
+            out.println();
+            out.println( String.format( "%s totals across %d sessions", entry.getKey(), sessions.size() ) );
+            out.println( String.format( "  TCP segments:         %d, of which %d carried data", d.segments, d.dataSegments ) );
+            out.println( String.format( "  Bytes on the wire:    %d", d.frameBytes ) );
+            out.println( String.format( "    TCP payload:        %d (%.1f%%)", d.payloadBytes, percent( d.payloadBytes, d.frameBytes ) ) );
+            out.println( String.format( "    Link/IP/TCP headers: %d (%.1f%%)", d.frameBytes - d.payloadBytes,
+                    percent( d.frameBytes - d.payloadBytes, d.frameBytes ) ) );
+            out.println( String.format( "    Websocket framing:  %d (%.1f%%)", d.websocketFraming, percent( d.websocketFraming, d.frameBytes ) ) );
+            out.println( String.format( "    Bolt chunk headers: %d (%.1f%%)", d.boltFraming, percent( d.boltFraming, d.frameBytes ) ) );
+            out.println( String.format( "  Bolt messages:        %d", d.messages ) );
+            out.println( String.format( "  Tiny segments:        %d (< %d bytes), %d storms of %d or more in a row covering %d segments",
+                    d.tinySegments, tinySegmentBytes, d.storms, stormLength, d.segmentsInStorms ) );
+            out.println( String.format( "  Likely Nagle stalls:  %d", d.nagleStalls ) );
+            out.println( "  Bolt chunk sizes:" );
+            d.chunkSizes.print( out, "    " );
+            out.println( "  Messages per TCP segment:" );
+            d.messagesPerSegment.print( out, "    " );
+            out.println( "  TCP segments per message:" );
+            d.segmentsPerMessage.print( out, "    " );
+            out.println( "  TCP payload sizes:" );
+            d.payloadSizes.print( out, "    " );
+        }
+    }
+
+    private static double percent( long part, long whole )
+    {
+        return whole == 0 ? 0 : part * 100.0 / whole;
+    }
+
+    private static class SessionStats
+    {
+        private final AnalyzedSession session;
+        private final Map<String,DirectionStats> directions = new LinkedHashMap<>();
+        private String lastDataSource;
+
+        SessionStats( AnalyzedSession session )
+        {
+            this.session = session;
+        }
+    }
+
+    private class DirectionStats
+    {
+        private final Histogram chunkSizes = new Histogram( 3 );
+        private final Histogram messagesPerSegment = new Histogram( 3 );
+        private final Histogram segmentsPerMessage = new Histogram( 3 );
+        private final Histogram payloadSizes = new Histogram( 3 );
+
+        private long segments;
+        private long dataSegments;
+        private long frameBytes;
+        private long payloadBytes;
+        private long boltFraming;
+        private long websocketFraming;
+        private long messages;
+        private long tinySegments;
+        private long storms;
+        private long segmentsInStorms;
+        private long nagleStalls;
+
+        private int tinyRun;
+        private long lastDataTimestamp;
+
+        /** @return true if the packet carried data */
+        boolean record( Dict packet, boolean sameDirectionAsLastData )
+        {
+            int payloadSize = packet.get( Fields.payloadSize, 0 );
+            long timestamp = packet.get( Fields.timestamp );
+
+            segments++;
+            frameBytes += packet.get( Fields.frameSize, payloadSize );
+            payloadBytes += payloadSize;
+
+            int messagesInSegment = 0;
+            for ( Dict message : packet.get( Fields.messages, emptyList() ) )
+            {
+                int[] chunks = message.get( Fields.Message.chunks );
+                if( chunks == null )
+                {
+                    continue;
+                }
+                messagesInSegment++;
+                messages++;
+                boltFraming += 2 * (chunks.length + 1);
+                for ( int chunk : chunks )
+                {
+                    chunkSizes.record( chunk );
+                }
+                segmentsPerMessage.record( message.get( Fields.Message.segments ) );
+            }
+
+            if( payloadSize == 0 )
+            {
+                return false;
+            }
+
+            dataSegments++;
+            payloadSizes.record( payloadSize );
+            messagesPerSegment.record( messagesInSegment );
+
+            if( payloadSize < tinySegmentBytes )
+            {
+                tinySegments++;
+                if( sameDirectionAsLastData && tinyRun > 0 )
+                {
+                    tinyRun++;
+                    long gap = timestamp - lastDataTimestamp;
+                    if( gap >= nagleMinGap && gap <= nagleMaxGap )
+                    {
+                        nagleStalls++;
+                    }
+                }
+                else
+                {
+                    tinyRun = 1;
+                }
+
+                if( tinyRun == stormLength )
+                {
+                    storms++;
+                    segmentsInStorms += stormLength;
+                }
+                else if( tinyRun > stormLength )
+                {
+                    segmentsInStorms++;
+                }
+            }
+            else
+            {
+                tinyRun = 0;
+            }
+
+            lastDataTimestamp = timestamp;
+            return true;
+        }
+
+        void add( DirectionStats other )
+        {
+            chunkSizes.add( other.chunkSizes );
+            messagesPerSegment.add( other.messagesPerSegment );
+            segmentsPerMessage.add( other.segmentsPerMessage );
+            payloadSizes.add( other.payloadSizes );
+            segments += other.segments;
+            dataSegments += other.dataSegments;
+            frameBytes += other.frameBytes;
+            payloadBytes += other.payloadBytes;
+            boltFraming += other.boltFraming;
+            websocketFraming += other.websocketFraming;
+            messages += other.messages;
+            tinySegments += other.tinySegments;
+            storms += other.storms;
+            segmentsInStorms += other.segmentsInStorms;
+            nagleStalls += other.nagleStalls;
+        }
+    }
+}
@@ -20,8 +20,10 @@
 package org.neo4j.tools.boltalyzer;
 
 
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
@@ -29,6 +31,7 @@ import java.nio.ByteOrder;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.stream.Stream;
@@ -38,14 +41,25 @@ import org.neo4j.function.ThrowingSupplier;
 
 public class PCAPParser
 {
-    private static final int PCAP_HEADER = 0xA1B2C3D4;
+    static final int PCAP_HEADER = 0xA1B2C3D4;
 
     public static final int IP_VERSION_AND_LENGTH_OFFSET = 0;
+    public static final int IP_TOTAL_LENGTH_OFFSET = 2;
     public static final int IP_SRC_OFFSET = 12;
     public static final int IP_DST_OFFSET = 16;
 
     public static final int TCP_SRC_PORT_OFFSET = 0;
     public static final int TCP_DST_PORT_OFFSET = 2;
+    public static final int TCP_SEQ_OFFSET = 4;
+    public static final int TCP_ACK_OFFSET = 8;
+    public static final int TCP_FLAGS_OFFSET = 13;
+    public static final int TCP_WINDOW_OFFSET = 14;
+
+    public static final int TCP_FIN = 0x01;
+    public static final int TCP_SYN = 0x02;
+    public static final int TCP_RST = 0x04;
+    public static final int TCP_PSH = 0x08;
+    public static final int TCP_ACK = 0x10;
 
 
     private static final Map<Integer,PhysicalFormat> physicalFormats = new HashMap<>();
@@ -104,32 +118,31 @@ public class PCAPParser
 
         return streamFrom( () -> {
 
-            if( !in.hasMore() )
+            while( in.hasMore() )
             {
-                return null;
-            }
+                // PCAP Packet Header: [int32 seconds][int32 ms][int32 frame captured size][int32 actual frame size]
+                long timestampSeconds = in.readInt();
+                long timestampMicroSeconds = in.readInt();
+                int packetSize = in.readInt();
+                int actualPacketSize = in.readInt();
+
+                long timestamp = timestampSeconds * 1_000_000 + timestampMicroSeconds;
+                if( packetSize == 0 )
+                {
+                    return null;
+                }
 
-            // PCAP Packet Header: [int32 seconds][int32 ms][int32 frame captured size][int32 actual frame size]
-            long timestampSeconds = in.readInt();
-            long timestampMicroSeconds = in.readInt();
-            int packetSize = in.readInt();
-            int actualPacketSize = in.readInt();
+                // Read the packet, unwrapped from the physical layer wrapping. Captures taken with a snap length, like
+                // tcpdump -s 128, cut packets short; what's left still tells us a lot, see parsePacket
+                byte[] rawPacket = physicalFormat.read( in, packetSize );
 
-            long timestamp = timestampSeconds * 1_000_000 + timestampMicroSeconds;
-            if( packetSize != actualPacketSize )
-            {
-                return null;
-            }
-
-            if( packetSize == 0 )
-            {
-                return null;
+                Dict packet = parsePacket( rawPacket, timestamp, actualPacketSize, actualPacketSize - packetSize );
+                if( packet != null )
+                {
+                    return packet;
+                }
             }
-
-            // Read the packet, unwrapped from the physical layer wrapping
-            byte[] rawPacket = physicalFormat.read( in, packetSize );
-
-            return parsePacket( rawPacket, timestamp );
+            return null;
         });
     }
 
@@ -137,116 +150,202 @@ public class PCAPParser
     {
         return StreamSupport.stream( Spliterators.spliteratorUnknownSize( new Iterator<Dict>()
         {
-            private Dict next = supplier.get();
+            // Only read ahead when asked, so that when following a live capture the latest packet is handed on as
+            // soon as it arrives, rather than when the one after it does
+            private Dict next;
+            private boolean ended;
 
             @Override
             public boolean hasNext()
             {
+                if( next == null && !ended )
+                {
+                    try
+                    {
+                        next = supplier.get();
+                    }
+                    catch ( IOException e )
+                    {
+                        throw new RuntimeException( e );
+                    }
+                    ended = next == null;
+                }
                 return next != null;
             }
 
             @Override
             public Dict next()
             {
-                try
+                if( !hasNext() )
                 {
-                    Dict current = next;
-                    next = supplier.get();
-                    return current;
-                }
-                catch ( IOException e )
-                {
-                    throw new RuntimeException( e );
+                    throw new NoSuchElementException();
                 }
+                Dict current = next;
+                next = null;
+                return current;
             }
         }, Spliterator.IMMUTABLE ), false );
     }
 
+    /**
+     * Reads the capture as it arrives. Pipes, like tcpdump -w - on stdin, hand out what has been written so far, so
+     * reads loop until they have all they asked for, and only the end of the stream ends the capture.
+     */
     private static class LittleEndianStream
     {
-        private final InputStream stream;
+        private final PushbackInputStream stream;
+        private final DataInputStream data;
         private final byte[] intBuffer = new byte[4];
         private final ByteBuffer littleEndianBufferView = ByteBuffer.wrap( intBuffer ).order( ByteOrder.LITTLE_ENDIAN );
+        private final byte[] skipBuffer = new byte[64];
 
         public LittleEndianStream( InputStream stream )
         {
-            this.stream = stream;
+            this.stream = new PushbackInputStream( stream );
+            this.data = new DataInputStream( this.stream );
         }
 
         private int readInt() throws IOException
         {
             // PCAP is litte-endian, so we need our own int reading method
-            int read = stream.read( intBuffer );
-            if ( read != 4 )
-            {
-                throw new IOException( "Expected at least 4 bytes left to read an integer, found " + read );
-            }
+            data.readFully( intBuffer );
             littleEndianBufferView.clear();
             return littleEndianBufferView.getInt();
         }
 
         public void skip( int numBytes ) throws IOException
         {
-            if( stream.skip( numBytes ) != numBytes )
+            // InputStream#skip can't be trusted on pipes, so read and throw away instead
+            while( numBytes > 0 )
             {
-                throw new IOException( "EOF" );
+                int chunk = Math.min( numBytes, skipBuffer.length );
+                data.readFully( skipBuffer, 0, chunk );
+                numBytes -= chunk;
             }
         }
 
+        /** Blocks until there is more to read or the stream ends; available() is 0 whenever a live pipe is idle */
         public boolean hasMore() throws IOException
         {
-            return stream.available() > 0;
+            int next = stream.read();
+            if( next == -1 )
+            {
+                return false;
+            }
+            stream.unread( next );
+            return true;
         }
 
         public byte[] read( int size ) throws IOException
         {
-            byte[] data = new byte[size];
-            if( stream.read(data) != data.length )
-            {
-                throw new IOException( "EOF" );
-            }
-            return data;
+            byte[] bytes = new byte[size];
+            data.readFully( bytes );
+            return bytes;
         }
     }
 
-    private static Dict parsePacket( byte[] raw, long timestamp ) throws UnknownHostException
+    /**
+     * @param uncaptured bytes of the packet that were on the wire, but cut off by the capture snap length. The payload
+     *                   then only holds what was captured, while {@link Fields#payloadSize} is the size on the wire.
+     * @return the packet, or null if the capture cut into its IP or TCP header
+     */
+    private static Dict parsePacket( byte[] raw, long timestamp, int frameSize, int uncaptured ) throws UnknownHostException
     {
-        if( raw.length > 0 )
+        if( hasHeaders( raw ) )
         {
             int tcpPacketOffset = (raw[IP_VERSION_AND_LENGTH_OFFSET] & 0xF) * 4;
             int tcpPayloadOffset = tcpPacketOffset + ((raw[tcpPacketOffset + 12] >> 4) & 0xF) * 4;
 
+            // Use the IP length rather than the frame length, since small ethernet frames get padded
+            int ipLength = readUnsignedShort( IP_TOTAL_LENGTH_OFFSET, raw );
+            int capturedLength = Math.min( raw.length, ipLength == 0 ? raw.length : ipLength );
+            int wireLength = uncaptured == 0 ? capturedLength : ipLength == 0 ? raw.length + uncaptured : ipLength;
+            int capturedPayloadSize = Math.max( 0, capturedLength - tcpPayloadOffset );
+            int payloadSize = Math.max( 0, wireLength - tcpPayloadOffset );
+
             InetAddress src = parseInetAddress( IP_SRC_OFFSET, raw );
             int srcPort = readPort( TCP_SRC_PORT_OFFSET + tcpPacketOffset, raw );
 
             InetAddress dst = parseInetAddress( IP_DST_OFFSET, raw );
             int dstPort = readPort( TCP_DST_PORT_OFFSET + tcpPacketOffset, raw );
+            int flags = raw[TCP_FLAGS_OFFSET + tcpPacketOffset] & 0xFF;
+            long seq = readUnsignedInt( TCP_SEQ_OFFSET + tcpPacketOffset, raw );
+            long ack = readUnsignedInt( TCP_ACK_OFFSET + tcpPacketOffset, raw );
+            int window = readUnsignedShort( TCP_WINDOW_OFFSET + tcpPacketOffset, raw );
 
-            String srcStr = src.toString() + srcPort;
-            String dstStr = dst.toString() + dstPort;
-            String connectionKey = srcStr.compareTo( dstStr ) > 0 ? srcStr + dstStr : dstStr + srcStr;
+            String connectionKey = connectionKey( src, srcPort, dst, dstPort );
 
-            ByteBuffer payload = ByteBuffer.wrap( raw, tcpPayloadOffset, raw.length - tcpPayloadOffset );
+            ByteBuffer payload = ByteBuffer.wrap( raw, Math.min( raw.length, tcpPayloadOffset ), capturedPayloadSize );
             return new Dict()
                     .put( Fields.timestamp, timestamp )
+                    .put( Fields.frameSize, frameSize )
+                    .put( Fields.payloadSize, payloadSize )
                     .put( Fields.src, src )
                     .put( Fields.srcPort, srcPort )
                     .put( Fields.dst, dst )
                     .put( Fields.dstPort, dstPort )
+                    .put( Fields.tcpFlags, flags )
+                    .put( Fields.tcpSeq, seq )
+                    .put( Fields.tcpAck, ack )
+                    .put( Fields.tcpWindow, window )
                     .put( Fields.payload, payload )
                     .put( Fields.connectionKey, connectionKey );
         }
         else
         {
-            return new Dict();
+            return null;
+        }
+    }
+
+    /**
+     * True if the first {@code length} bytes of an IP packet hold its addresses and the fixed part of the TCP header.
+     * @param ip offset of the IP packet in {@code raw}
+     */
+    static boolean hasHeaders( ByteBuffer raw, int ip, int length )
+    {
+        return length >= 20 && (raw.get( ip + IP_VERSION_AND_LENGTH_OFFSET ) & 0xF) * 4 + 20 <= length;
+    }
+
+    private static boolean hasHeaders( byte[] raw )
+    {
+        return raw.length >= 20 && (raw[IP_VERSION_AND_LENGTH_OFFSET] & 0xF) * 4 + 20 <= raw.length;
+    }
+
+    /** Identifies a TCP connection, the same for packets going either way */
+    static String connectionKey( InetAddress src, int srcPort, InetAddress dst, int dstPort )
+    {
+        String srcStr = src.toString() + srcPort;
+        String dstStr = dst.toString() + dstPort;
+        return srcStr.compareTo( dstStr ) > 0 ? srcStr + dstStr : dstStr + srcStr;
+    }
+
+    /** Length of the physical frame header in front of the IP packet, for the network types we have a {@link PhysicalFormat} for */
+    static int linkHeaderLength( int networkType ) throws IOException
+    {
+        switch( networkType )
+        {
+        case 0: return 4;
+        case 1: return 14;
+        default:
+            throw new IOException( "Don't know how do decode packets from " + Integer.toHexString( networkType ) + " network type." );
         }
     }
 
     private static int readPort( int offset, byte[] raw )
+    {
+        return readUnsignedShort( offset, raw );
+    }
+
+    private static int readUnsignedShort( int offset, byte[] raw )
     {
         return ((raw[offset] & 0xFF) << 8) | (raw[offset + 1] & 0xFF);
     }
 
+    private static long readUnsignedInt( int offset, byte[] raw )
+    {
+        return ((long) readUnsignedShort( offset, raw ) << 16) | readUnsignedShort( offset + 2, raw );
+    }
+
     private static InetAddress parseInetAddress(int offset, byte[] raw) throws UnknownHostException
     {
         System.arraycopy( raw, offset, IP_BUFFER, 0, IP_BUFFER.length );
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Cuts the packets matching a time window, host, port and session out of a capture, into a new capture.
+ *
+ * Nothing is decoded beyond the pcap record headers and the IP and TCP headers that filters need: the capture is
+ * mapped a window at a time to read those, and each run of consecutive matching records is copied to the new capture
+ * in one {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, which the OS can do
+ * without the bytes passing through the JVM. Sessions are numbered the way the rest of boltalyzer numbers them, from
+ * the TCP addresses and flags alone.
+ */
+public class PcapSlicer
+{
+    private static final int GLOBAL_HEADER = 24;
+    private static final int RECORD_HEADER = 16;
+    /** Offset of the network type in the global header */
+    private static final int NETWORK_TYPE_OFFSET = 20;
+    /** How much of each packet filters may look at: the longest IP header, and the fixed part of the TCP header */
+    private static final int MAX_FILTERED = 60 + 20;
+    private static final long WINDOW = 256 * 1024 * 1024;
+
+    private static final int IP_PROTOCOL_OFFSET = 9;
+    private static final int IP_PROTOCOL_TCP = 6;
+
+    private final PrintStream out;
+    private final long from;
+    private final long until;
+    private final byte[] host;
+    private final int port;
+    private final long sessionId;
+    private final Boltalyzer.SessionRepository sessions = new Boltalyzer.SessionRepository( false );
+
+    /**
+     * @param from keep packets captured at or after this many microseconds since the epoch
+     * @param until keep packets captured before this many microseconds since the epoch
+     * @param host keep packets to or from this host, or null for any host
+     * @param port keep packets to or from this port, or -1 for any port
+     * @param sessionId keep packets of this session, numbered as for --session, or -1 for any session
+     */
+    public PcapSlicer( PrintStream out, long from, long until, InetAddress host, int port, long sessionId )
+    {
+        this.out = out;
+        this.from = from;
+        this.until = until;
+        this.host = host == null ? null : host.getAddress();
+        this.port = port;
+        this.sessionId = sessionId;
+    }
+
+    public void slice( Path source, Path target ) throws IOException
+    {
+        try ( FileChannel in = FileChannel.open( source, READ );
+              FileChannel slice = FileChannel.open( target, CREATE, WRITE, TRUNCATE_EXISTING ) )
+        {
+            long size = in.size();
+            MappedByteBuffer window = map( in, 0, size );
+            if( size < GLOBAL_HEADER || window.getInt( 0 ) != PCAPParser.PCAP_HEADER )
+            {
+                throw new IOException( "Provided file is not a valid PCAP dump, valid dump files should start with 0x" +
+                                       Integer.toHexString( PCAPParser.PCAP_HEADER ) + "." );
+            }
+            int linkHeader = PCAPParser.linkHeaderLength( window.getInt( NETWORK_TYPE_OFFSET ) );
+            transfer( in, 0, GLOBAL_HEADER, slice );
+
+            long windowStart = 0;
+            long position = GLOBAL_HEADER;
+            long runStart = position;
+            long runEnd = position;
+            long packets = 0;
+            long kept = 0;
+            while( position + RECORD_HEADER <= size )
+            {
+                // Remap when the part of the record filters look at runs past the end of the window
+                long needed = Math.min( size, position + RECORD_HEADER + linkHeader + MAX_FILTERED );
+                if( needed > windowStart + window.limit() )
+                {
+                    windowStart = position;
+                    window = map( in, windowStart, size );
+                }
+
+                int offset = (int) (position - windowStart);
+                long timestamp = (window.getInt( offset ) & 0xFFFFFFFFL) * 1_000_000 + (window.getInt( offset + 4 ) & 0xFFFFFFFFL);
+                int captured = window.getInt( offset + 8 );
+                long next = position + RECORD_HEADER + captured;
+                if( captured < 0 || next > size )
+                {
+                    // The capture was cut off in the middle of this record
+                    break;
+                }
+                int available = (int) Math.min( captured, windowStart + window.limit() - position - RECORD_HEADER );
+
+                packets++;
+                if( matches( window, offset + RECORD_HEADER + linkHeader, available - linkHeader, timestamp ) )
+                {
+                    kept++;
+                    if( position != runEnd )
+                    {
+                        transfer( in, runStart, runEnd - runStart, slice );
+                        runStart = position;
+                    }
+                    runEnd = next;
+                }
+                position = next;
+            }
+            transfer( in, runStart, runEnd - runStart, slice );
+
+            out.println( String.format( "Kept %d of %d packets, %d of %d bytes, in %s", kept, packets, slice.size(), size, target ) );
+        }
+    }
+
+    private boolean matches( MappedByteBuffer packet, int ip, int length, long timestamp ) throws IOException
+    {
+        if( sessionId == -1 && host == null && port == -1 )
+        {
+            return timestamp >= from && timestamp < until;
+        }
+
+        // The parser skips packets whose headers were cut off, and gives every other packet a session, TCP or not
+        if( !PCAPParser.hasHeaders( packet, ip, length ) )
+        {
+            return false;
+        }
+        int tcp = ip + (packet.get( ip ) & 0xF) * 4;
+
+        // Sessions are numbered in order of appearance, so this needs to see every packet, whatever the other filters say
+        if( sessionId != -1 && !session( packet, ip, tcp ) )
+        {
+            return false;
+        }
+        if( timestamp < from || timestamp >= until )
+        {
+            return false;
+        }
+        if( host == null && port == -1 )
+        {
+            return true;
+        }
+        if( (packet.get( ip ) >> 4 & 0xF) != 4 || packet.get( ip + IP_PROTOCOL_OFFSET ) != IP_PROTOCOL_TCP )
+        {
+            return false;
+        }
+        int srcPort = unsignedShort( packet, tcp + PCAPParser.TCP_SRC_PORT_OFFSET );
+        int dstPort = unsignedShort( packet, tcp + PCAPParser.TCP_DST_PORT_OFFSET );
+        return (host == null || address( packet, ip + PCAPParser.IP_SRC_OFFSET ) || address( packet, ip + PCAPParser.IP_DST_OFFSET ))
+               && (port == -1 || srcPort == port || dstPort == port);
+    }
+
+    private boolean session( MappedByteBuffer packet, int ip, int tcp ) throws IOException
+    {
+        int srcPort = unsignedShort( packet, tcp + PCAPParser.TCP_SRC_PORT_OFFSET );
+        int dstPort = unsignedShort( packet, tcp + PCAPParser.TCP_DST_PORT_OFFSET );
+        int flags = packet.get( tcp + PCAPParser.TCP_FLAGS_OFFSET ) & 0xFF;
+        InetAddress src = InetAddress.getByAddress( bytes( packet, ip + PCAPParser.IP_SRC_OFFSET ) );
+        InetAddress dst = InetAddress.getByAddress( bytes( packet, ip + PCAPParser.IP_DST_OFFSET ) );
+        String key = PCAPParser.connectionKey( src, srcPort, dst, dstPort );
+
+        AnalyzedSession session = sessions.session( key, flags );
+        session.observeTcpFlags( src.toString() + ":" + srcPort, flags );
+        if( session.isClosed() )
+        {
+            sessions.release( key );
+        }
+        return session.id() == sessionId;
+    }
+
+    private boolean address( MappedByteBuffer packet, int offset )
+    {
+        for ( int i = 0; i < host.length; i++ )
+        {
+            if( packet.get( offset + i ) != host[i] )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] bytes( MappedByteBuffer packet, int offset )
+    {
+        byte[] address = new byte[4];
+        for ( int i = 0; i < address.length; i++ )
+        {
+            address[i] = packet.get( offset + i );
+        }
+        return address;
+    }
+
+    private static int unsignedShort( MappedByteBuffer packet, int offset )
+    {
+        return ((packet.get( offset ) & 0xFF) << 8) | (packet.get( offset + 1 ) & 0xFF);
+    }
+
+    private static MappedByteBuffer map( FileChannel in, long position, long size ) throws IOException
+    {
+        MappedByteBuffer window = in.map( FileChannel.MapMode.READ_ONLY, position, Math.min( WINDOW, size - position ) );
+        window.order( ByteOrder.LITTLE_ENDIAN );
+        return window;
+    }
+
+    private static void transfer( FileChannel in, long position, long count, FileChannel out ) throws IOException
+    {
+        // transferTo may copy less than asked for, eg. when the OS copies in chunks
+        while( count > 0 )
+        {
+            long copied = in.transferTo( position, count, out );
+            position += copied;
+            count -= copied;
+        }
+    }
+}
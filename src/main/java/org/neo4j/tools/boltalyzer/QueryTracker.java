@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.neo4j.tools.boltalyzer.Fields.Message;
+import org.neo4j.tools.boltalyzer.Fields.Query;
+
+import static java.util.Collections.emptyList;
+import static org.neo4j.tools.boltalyzer.Dict.dict;
+
+/**
+ * Ties server responses back to the client requests they answer, and describes each query from its RUN to the final
+ * response of its PULL_ALL or DISCARD_ALL.
+ *
+ * Bolt answers requests strictly in the order they were sent, so each session keeps a queue of requests still waiting
+ * for their summary (SUCCESS, FAILURE or IGNORED), and RECORD messages belong to whichever request is at the head of that queue.
+ * When a query completes, its description is added to {@link Fields#queries} on the packet carrying the final response.
+ *
+ * In captures taken with a snap length, responses can be lost where the capture cut off the framing, see
+ * {@link AnalyzedSession#describe(String, java.nio.ByteBuffer, int)}. Once the client sends again, the server is taken to
+ * have answered everything before that, and queries whose final response was lost complete at the last server packet,
+ * with outcome {@link #NOT_CAPTURED}.
+ *
+ * A query whose RUN fails before the client asked for its result is done there and then. One the client resets before
+ * asking for its result is no longer in flight once the RESET is acknowledged; it is only described if its RUN failed.
+ *
+ * This needs to see every packet in a session, so it must come before any filtering in the pipeline.
+ */
+public class QueryTracker implements Function<Dict, Dict>
+{
+    /** Outcome of queries whose final response was not captured */
+    public static final String NOT_CAPTURED = "NOT CAPTURED";
+
+    private final Map<AnalyzedSession,SessionState> sessions = new HashMap<>();
+
+    @Override
+    public Dict apply( Dict packet )
+    {
+        AnalyzedSession session = packet.get( Fields.session );
+        if( session == null )
+        {
+            return packet;
+        }
+
+        // Once the connection is torn down no more responses will arrive, so stop tracking the session
+        SessionState state = session.isClosed() ? sessions.remove( session ) : sessions.computeIfAbsent( session, SessionState::new );
+        if( state == null )
+        {
+            packet.put( Fields.queriesInFlight, 0 );
+            packet.put( Fields.requestsInFlight, 0 );
+            return packet;
+        }
+
+        List<Dict> messages = packet.get( Fields.messages, emptyList() );
+        boolean fromClient = "Client".equals( packet.get( Fields.logicalSource ) );
+        List<Dict> completed = null;
+        if( fromClient && !messages.isEmpty() && state.lostResponseAt != -1 )
+        {
+            completed = state.abandonAwaitingResponse();
+        }
+        for ( Dict message : messages )
+        {
+            if( fromClient )
+            {
+                state.request( message, packet );
+            }
+            else
+            {
+                Dict query = state.response( message, packet.get( Fields.timestamp ) );
+                if( query != null )
+                {
+                    if( completed == null )
+                    {
+                        completed = new ArrayList<>( 1 );
+                    }
+                    completed.add( query );
+                }
+            }
+        }
+
+        if( completed != null )
+        {
+            packet.put( Fields.queries, completed );
+        }
+        packet.put( Fields.queriesInFlight, session.isClosed() ? 0 : state.queriesInFlight );
+        packet.put( Fields.requestsInFlight, session.isClosed() ? 0 : state.awaitingResponse.size() );
+        return packet;
+    }
+
+    private static class Pending
+    {
+        private final String type;
+        /** The query this request is part of, or null if it is not part of a query */
+        private final Dict query;
+
+        Pending( String type, Dict query )
+        {
+            this.type = type;
+            this.query = query;
+        }
+    }
+
+    private static class SessionState
+    {
+        private final AnalyzedSession session;
+        private final Deque<Pending> awaitingResponse = new ArrayDeque<>();
+        /** The most recent RUN, until the PULL_ALL or DISCARD_ALL that goes with it is seen */
+        private Dict awaitingStreamRequest;
+        private int queriesInFlight = 0;
+        /** Time of the latest server packet whose responses were not captured, -1 if all responses since the last request were */
+        private long lostResponseAt = -1;
+
+        SessionState( AnalyzedSession session )
+        {
+            this.session = session;
+        }
+
+        void request( Dict message, Dict packet )
+        {
+            String type = message.get( Message.type );
+            switch( type )
+            {
+            case BoltMessageDescriber.MSG_RUN:
+                awaitingStreamRequest = dict(
+                        Fields.session, session,
+                        Message.queryNo, message.get( Message.queryNo ),
+                        Message.statement, message.get( Message.statement ),
+                        Message.params, message.get( Message.params ),
+                        Query.started, packet.get( Fields.timestamp ),
+                        Query.startedString, packet.get( Fields.timeString ),
+                        Query.records, 0L,
+                        Query.resultBytes, 0L,
+                        Query.largestRecord, 0 );
+                awaitingResponse.add( new Pending( type, awaitingStreamRequest ) );
+                queriesInFlight++;
+                break;
+            case "PULL_ALL":
+            case "DISCARD_ALL":
+                awaitingResponse.add( new Pending( type, awaitingStreamRequest ) );
+                awaitingStreamRequest = null;
+                break;
+            case "RESET":
+                // A RUN not followed by PULL_ALL or DISCARD_ALL is given up on once the reset is acknowledged
+                awaitingResponse.add( new Pending( type, awaitingStreamRequest ) );
+                awaitingStreamRequest = null;
+                break;
+            case "INIT":
+            case "ACK_FAILURE":
+                awaitingResponse.add( new Pending( type, null ) );
+                break;
+            default:
+                // Handshakes and things we could not parse don't get a response we can track
+                break;
+            }
+        }
+
+        /** @return the query this response completed, if any */
+        Dict response( Dict message, long timestamp )
+        {
+            String type = message.get( Message.type );
+            switch( type )
+            {
+            case AnalyzedSession.NOT_CAPTURED:
+                lostResponseAt = timestamp;
+                return null;
+            case BoltMessageDescriber.MSG_RECORD:
+            {
+                Pending head = awaitingResponse.peek();
+                if( head != null && head.query != null )
+                {
+                    Dict query = head.query;
+                    int size = message.get( Message.size, 0 );
+                    query.put( Query.records, query.get( Query.records ) + 1 );
+                    query.put( Query.resultBytes, query.get( Query.resultBytes ) + size );
+                    query.put( Query.largestRecord, Math.max( query.get( Query.largestRecord ), size ) );
+                    if( !query.has( Query.firstRecord ) )
+                    {
+                        query.put( Query.firstRecord, timestamp );
+                    }
+                }
+                return null;
+            }
+            case "SUCCESS":
+            case "FAILURE":
+            case "IGNORED":
+            {
+                Pending head = awaitingResponse.poll();
+                if( head == null || head.query == null )
+                {
+                    return null;
+                }
+
+                Dict query = head.query;
+                if( head.type.equals( BoltMessageDescriber.MSG_RUN ) )
+                {
+                    query.put( Query.firstResponse, timestamp );
+                    if( type.equals( "SUCCESS" ) )
+                    {
+                        return null;
+                    }
+                    query.put( Query.outcome, type );
+                    query.put( Query.status, message.get( Message.status ) );
+                    if( query != awaitingStreamRequest )
+                    {
+                        // The PULL_ALL or DISCARD_ALL already sent completes it
+                        return null;
+                    }
+                    // The client won't ask for the result of a failed query, it acknowledges the failure instead
+                    awaitingStreamRequest = null;
+                }
+                else if( head.type.equals( "RESET" ) && !query.has( Query.outcome ) )
+                {
+                    queriesInFlight--;
+                    return null;
+                }
+
+                query.put( Query.finished, timestamp );
+                queriesInFlight--;
+                if( !query.has( Query.outcome ) )
+                {
+                    query.put( Query.outcome, type );
+                    query.put( Query.status, message.get( Message.status ) );
+                }
+                return query;
+            }
+            default:
+                return null;
+            }
+        }
+
+        /** Give up on responses that went by uncaptured, completing the queries they would have completed */
+        List<Dict> abandonAwaitingResponse()
+        {
+            List<Dict> completed = new ArrayList<>();
+            for ( Pending pending : awaitingResponse )
+            {
+                if( pending.query != null && !pending.type.equals( BoltMessageDescriber.MSG_RUN ) )
+                {
+                    pending.query.put( Query.finished, lostResponseAt );
+                    if( !pending.query.has( Query.outcome ) )
+                    {
+                        pending.query.put( Query.outcome, NOT_CAPTURED );
+                    }
+                    completed.add( pending.query );
+                    queriesInFlight--;
+                }
+            }
+            awaitingResponse.clear();
+            lostResponseAt = -1;
+            return completed.isEmpty() ? null : completed;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.tools.boltalyzer.stats.LatencyComparison;
+
+/**
+ * Splits a replay across several worker processes, see {@link ReplayWorker}, for when one process can't generate the
+ * load the capture calls for.
+ *
+ * Each worker reads its own copy of the capture and replays only its share of the sessions, so the coordinator only
+ * hands out shares and replay options, starts everyone at once and merges the results. Workers are told to start at
+ * a wall clock time a moment ahead, rather than right away, so the timing between sessions replayed by different
+ * workers is kept - as long as the clocks of the machines involved agree, eg. through NTP.
+ */
+public class ReplayCoordinator
+{
+    static final int PROTOCOL_VERSION = 1;
+    static final int READY = 1;
+    /** How far ahead to schedule the start, so every worker has heard about it by then */
+    private static final long START_MARGIN_MS = 2000;
+
+    private final PrintStream out;
+    private final int port;
+    private final int workerCount;
+    private final Map<String,String> options;
+    private final LatencyComparison latencies;
+
+    /**
+     * @param port where to wait for workers to connect
+     * @param options replay options for the workers, as in {@link org.neo4j.helpers.Args#asMap()}
+     * @param latencies where to merge the latencies recorded by all workers
+     */
+    public ReplayCoordinator( PrintStream out, int port, int workerCount, Map<String,String> options,
+            LatencyComparison latencies )
+    {
+        this.out = out;
+        this.port = port;
+        this.workerCount = workerCount;
+        this.options = options;
+        this.latencies = latencies;
+    }
+
+    public void run() throws IOException
+    {
+        List<Socket> sockets = new ArrayList<>();
+        try ( ServerSocket server = new ServerSocket( port ) )
+        {
+            out.println( String.format( "Waiting for %d workers on port %d", workerCount, server.getLocalPort() ) );
+            List<DataInputStream> ins = new ArrayList<>();
+            List<DataOutputStream> outs = new ArrayList<>();
+            for ( int i = 0; i < workerCount; i++ )
+            {
+                Socket socket = server.accept();
+                sockets.add( socket );
+                ins.add( new DataInputStream( new BufferedInputStream( socket.getInputStream() ) ) );
+                outs.add( new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) ) );
+                out.println( String.format( "Worker %d connected from %s", i, socket.getRemoteSocketAddress() ) );
+            }
+
+            for ( int i = 0; i < workerCount; i++ )
+            {
+                DataOutputStream worker = outs.get( i );
+                worker.writeInt( PROTOCOL_VERSION );
+                worker.writeInt( i );
+                worker.writeInt( workerCount );
+                worker.writeInt( options.size() );
+                for ( Map.Entry<String,String> option : options.entrySet() )
+                {
+                    worker.writeUTF( option.getKey() );
+                    worker.writeBoolean( option.getValue() != null );
+                    worker.writeUTF( option.getValue() == null ? "" : option.getValue() );
+                }
+                worker.flush();
+            }
+
+            // The barrier: nobody starts until everyone is ready
+            for ( int i = 0; i < workerCount; i++ )
+            {
+                if( ins.get( i ).readInt() != READY )
+                {
+                    throw new IOException( "Worker " + i + " failed to get ready" );
+                }
+            }
+            long startMillis = System.currentTimeMillis() + START_MARGIN_MS;
+            for ( DataOutputStream worker : outs )
+            {
+                worker.writeLong( startMillis );
+                worker.flush();
+            }
+            out.println( "All workers ready, replay starts at " + Instant.ofEpochMilli( startMillis ) );
+
+            for ( int i = 0; i < workerCount; i++ )
+            {
+                latencies.addFrom( ins.get( i ) );
+                out.println( String.format( "Worker %d done, response times (us): %s", i, ins.get( i ).readUTF() ) );
+            }
+        }
+        finally
+        {
+            for ( Socket socket : sockets )
+            {
+                socket.close();
+            }
+        }
+
+        out.println();
+        out.println( "Response times across all workers (us): " + latencies.responseTimes().summary() );
+        latencies.print( out );
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.neo4j.tools.boltalyzer.stats.LatencyComparison;
+import org.neo4j.tools.boltalyzer.timing.ReplayClock;
+
+/**
+ * One of the processes a {@link ReplayCoordinator} splits a replay across. Gets its share of the sessions and the
+ * replay options from the coordinator, waits for the coordinator to start everyone together, and reports the
+ * latencies it recorded back when done.
+ */
+public class ReplayWorker implements AutoCloseable
+{
+    /** Workers may well be started before the coordinator is listening; keep trying this long */
+    private static final long CONNECT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis( 30 );
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final int index;
+    private final int count;
+    private final List<String> options = new ArrayList<>();
+
+    /** @param coordinator host:port of the coordinator */
+    public static ReplayWorker connect( String coordinator ) throws IOException, InterruptedException
+    {
+        int colon = coordinator.lastIndexOf( ':' );
+        InetSocketAddress address = new InetSocketAddress(
+                coordinator.substring( 0, colon ), Integer.parseInt( coordinator.substring( colon + 1 ) ) );
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+        while( true )
+        {
+            try
+            {
+                return new ReplayWorker( new Socket( address.getAddress(), address.getPort() ) );
+            }
+            catch ( ConnectException e )
+            {
+                if( System.currentTimeMillis() > deadline )
+                {
+                    throw e;
+                }
+                Thread.sleep( 100 );
+            }
+        }
+    }
+
+    private ReplayWorker( Socket socket ) throws IOException
+    {
+        this.socket = socket;
+        this.in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+        this.out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+
+        int version = in.readInt();
+        if( version != ReplayCoordinator.PROTOCOL_VERSION )
+        {
+            throw new IOException( "Coordinator speaks protocol version " + version + ", this worker speaks " +
+                                   ReplayCoordinator.PROTOCOL_VERSION );
+        }
+        this.index = in.readInt();
+        this.count = in.readInt();
+        for ( int remaining = in.readInt(); remaining > 0; remaining-- )
+        {
+            String key = in.readUTF();
+            boolean hasValue = in.readBoolean();
+            String value = in.readUTF();
+            options.add( hasValue ? "--" + key + "=" + value : "--" + key );
+        }
+    }
+
+    /** Command line for replaying the given capture with the options the coordinator handed out */
+    public String[] replayArguments( String pcap )
+    {
+        List<String> arguments = new ArrayList<>( options );
+        arguments.add( "replay" );
+        arguments.add( pcap );
+        return arguments.toArray( new String[0] );
+    }
+
+    /** Tell the coordinator this worker is ready, and have the clock start when the coordinator says */
+    public void awaitStart( ReplayClock clock ) throws IOException
+    {
+        out.writeInt( ReplayCoordinator.READY );
+        out.flush();
+        long startMillis = in.readLong();
+        clock.startAt( System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( startMillis - System.currentTimeMillis() ) );
+    }
+
+    /**
+     * Only pass on packets of the sessions this worker replays. The packets the replay engine would consult the clock
+     * for are shown to it regardless of session, so that all workers stretch and compress the capture the same way.
+     */
+    public Consumer<Dict> partition( ReplayClock clock, Predicate<Dict> clocked, Consumer<Dict> replay )
+    {
+        return packet -> {
+            if( clocked.test( packet ) )
+            {
+                clock.dueNs( packet.get( Fields.timestamp ) );
+            }
+            String connection = packet.get( Fields.connectionKey );
+            if( connection != null && Math.floorMod( connection.hashCode(), count ) == index )
+            {
+                replay.accept( packet );
+            }
+        };
+    }
+
+    public void report( LatencyComparison latencies ) throws IOException
+    {
+        latencies.writeTo( out );
+        out.writeUTF( latencies.responseTimes().summary() );
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        socket.close();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.neo4j.tools.boltalyzer.Fields.Message;
+import org.neo4j.tools.boltalyzer.Fields.Query;
+
+import static java.util.Collections.emptyList;
+import static org.neo4j.tools.boltalyzer.Boltalyzer.ellipsis;
+import static org.neo4j.tools.boltalyzer.Dict.dict;
+
+/**
+ * Prints the size of each query result as the query completes, followed by the queries with the largest results.
+ * Sizes come from how the RECORD messages were framed, so this works without decoding the records themselves.
+ */
+public class ResultSizes implements Boltalyzer.ClosableConsumer<Dict>
+{
+    private static final Comparator<Dict> BY_RESULT_BYTES = Comparator.comparing( q -> q.get( Query.resultBytes ) );
+
+    private final PrintStream out;
+    private final int top;
+    private final int maxStatementLength;
+
+    /** Min-heap of the largest results seen so far, never holding more than {@link #top} entries */
+    private final PriorityQueue<Dict> largest;
+
+    private long queries = 0;
+    private long records = 0;
+    private long resultBytes = 0;
+
+    public ResultSizes( PrintStream out, int top, int maxStatementLength )
+    {
+        this.out = out;
+        this.top = top;
+        this.maxStatementLength = maxStatementLength;
+        this.largest = new PriorityQueue<>( top + 1, BY_RESULT_BYTES );
+
+        out.println( "time\tsession\tqueryNo\trecords\tresultBytes\tlargestRecord\toutcome\tstatement" );
+    }
+
+    @Override
+    public void accept( Dict packet )
+    {
+        for ( Dict query : packet.get( Fields.queries, emptyList() ) )
+        {
+            queries++;
+            records += query.get( Query.records );
+            resultBytes += query.get( Query.resultBytes );
+
+            out.println( describe( query ) );
+
+            if( top > 0 && (largest.size() < top || BY_RESULT_BYTES.compare( query, largest.peek() ) > 0) )
+            {
+                // Only keep what the report needs, so we don't hold on to parameters
+                largest.add( dict(
+                        Fields.session, query.get( Fields.session ),
+                        Message.queryNo, query.get( Message.queryNo ),
+                        Message.statement, query.get( Message.statement ),
+                        Query.startedString, query.get( Query.startedString ),
+                        Query.records, query.get( Query.records ),
+                        Query.resultBytes, query.get( Query.resultBytes ),
+                        Query.largestRecord, query.get( Query.largestRecord ),
+                        Query.outcome, query.get( Query.outcome ) ) );
+                if( largest.size() > top )
+                {
+                    largest.poll();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        List<Dict> ranked = new ArrayList<>( largest );
+        ranked.sort( BY_RESULT_BYTES.reversed() );
+
+        out.println();
+        out.println( String.format( "%d queries returned %d records in %d bytes", queries, records, resultBytes ) );
+        out.println( String.format( "Top %d queries by result bytes:", ranked.size() ) );
+        for ( Dict query : ranked )
+        {
+            out.println( describe( query ) );
+        }
+    }
+
+    private String describe( Dict query )
+    {
+        return String.format( "%s\t%s\t%d\t%d\t%d\t%d\t%s\t%s",
+                query.get( Query.startedString ),
+                query.get( Fields.session ).name(),
+                query.get( Message.queryNo ),
+                query.get( Query.records ),
+                query.get( Query.resultBytes ),
+                query.get( Query.largestRecord ),
+                query.get( Query.outcome ),
+                ellipsis( query.get( Message.statement ).replaceAll( "\\s+", " " ).trim(), maxStatementLength ) );
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.util.MinimalPrettyPrinter;
+import org.neo4j.tools.boltalyzer.Fields.Message;
+import org.neo4j.tools.boltalyzer.serialize.Bolt2JSON;
+
+import static java.util.Collections.emptyList;
+import static org.neo4j.tools.boltalyzer.Dict.dict;
+
+/**
+ * Exports each query and its parameters as newline-delimited JSON, one query per line, into a directory of segment
+ * files named queries-00000.ndjson, queries-00001.ndjson and so on. A segment is closed and the next one started
+ * once it has grown past the segment size, so no file gets unmanageably large, and a capture with millions of queries
+ * still only makes a handful of files. The size limit is on the JSON written, so gzipped segments end up smaller.
+ *
+ * Each segment is written by a single streaming generator, straight from the decoded messages. Once all segments are
+ * written, manifest.json lists them in order, with how many queries each holds and the time of the first and last.
+ */
+public class SegmentedExport implements Boltalyzer.ClosableConsumer<Dict>
+{
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final PrintStream out;
+    private final Path dir;
+    private final long segmentBytes;
+    private final boolean gzip;
+    private final List<Dict> segments = new ArrayList<>();
+
+    private JsonGenerator generator;
+    private CountingOutputStream written;
+    private String segmentFile;
+    private long segmentRecords;
+    private long firstTime;
+    private long lastTime;
+    private long records;
+
+    /**
+     * @param dir directory to write segments and the manifest to, created if it does not exist
+     * @param segmentBytes start a new segment once this many bytes of JSON have been written to the current one;
+     *                     segments end with the query that takes them past this, so they can be a little larger
+     * @param gzip compress each segment
+     */
+    public SegmentedExport( PrintStream out, Path dir, long segmentBytes, boolean gzip ) throws IOException
+    {
+        this.out = out;
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.gzip = gzip;
+        Files.createDirectories( dir );
+    }
+
+    @Override
+    public void accept( Dict packet )
+    {
+        try
+        {
+            for ( Dict message : packet.get( Fields.messages, emptyList() ) )
+            {
+                if( message.get( Message.type ).equals( BoltMessageDescriber.MSG_RUN ) )
+                {
+                    write( packet, message );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    private void write( Dict packet, Dict run ) throws IOException
+    {
+        if( generator == null )
+        {
+            startSegment();
+        }
+
+        long time = packet.get( Fields.timestamp );
+        generator.writeStartObject();
+        generator.writeStringField( "session", packet.get( Fields.session ).name() );
+        generator.writeNumberField( "queryNo", run.get( Message.queryNo ) );
+        generator.writeNumberField( "time", time );
+        generator.writeStringField( "statement", run.get( Message.statement ) );
+        generator.writeFieldName( "params" );
+        generator.writeObject( run.get( Message.params ) );
+        generator.writeEndObject();
+        generator.writeRaw( '\n' );
+        generator.flush();
+
+        if( segmentRecords++ == 0 )
+        {
+            firstTime = time;
+        }
+        lastTime = time;
+        records++;
+
+        if( written.count >= segmentBytes )
+        {
+            endSegment();
+        }
+    }
+
+    private void startSegment() throws IOException
+    {
+        String file = String.format( "queries-%05d.ndjson%s", segments.size(), gzip ? ".gz" : "" );
+        OutputStream stream = new BufferedOutputStream( Files.newOutputStream( dir.resolve( file ) ), BUFFER_SIZE );
+        written = new CountingOutputStream( gzip ? new GZIPOutputStream( stream, BUFFER_SIZE ) : stream );
+
+        generator = Bolt2JSON.streamingMapper().getJsonFactory().createJsonGenerator( written, JsonEncoding.UTF8 );
+        // Flushing after each query only moves it into the buffer below, so the count of written bytes is up to date
+        generator.disable( JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM );
+        // Queries are separated by the newline written after each, not by the default space
+        generator.setPrettyPrinter( new MinimalPrettyPrinter( "" ) );
+
+        segmentFile = file;
+        segmentRecords = 0;
+    }
+
+    private void endSegment() throws IOException
+    {
+        generator.close();
+        segments.add( dict(
+                "file", segmentFile,
+                "records", segmentRecords,
+                "bytes", Files.size( dir.resolve( segmentFile ) ),
+                "firstTime", firstTime,
+                "lastTime", lastTime ) );
+        generator = null;
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        if( generator != null )
+        {
+            endSegment();
+        }
+
+        Map<String,Object> manifest = dict(
+                "format", "ndjson",
+                "compression", gzip ? "gzip" : "none",
+                "records", records,
+                "segments", segments );
+        Bolt2JSON.mapper().writerWithDefaultPrettyPrinter().writeValue( dir.resolve( "manifest.json" ).toFile(), manifest );
+
+        out.println( String.format( "Exported %d queries to %d segments in %s", records, segments.size(), dir ) );
+    }
+
+    /** Counts bytes of JSON on their way to the file, to tell when a segment is full */
+    private static class CountingOutputStream extends FilterOutputStream
+    {
+        private long count;
+
+        CountingOutputStream( OutputStream out )
+        {
+            super( out );
+        }
+
+        @Override
+        public void write( int b ) throws IOException
+        {
+            out.write( b );
+            count++;
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) throws IOException
+        {
+            out.write( b, off, len );
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.neo4j.tools.boltalyzer.Fields.Query;
+import org.neo4j.tools.boltalyzer.stats.Histogram;
+
+import static java.util.Collections.emptyList;
+import static org.neo4j.tools.boltalyzer.PCAPParser.TCP_ACK;
+import static org.neo4j.tools.boltalyzer.PCAPParser.TCP_FIN;
+import static org.neo4j.tools.boltalyzer.PCAPParser.TCP_RST;
+import static org.neo4j.tools.boltalyzer.PCAPParser.TCP_SYN;
+
+/**
+ * Reports the health of the TCP connections underneath Bolt: round trip times estimated from data segments and the
+ * ACKs that cover them, retransmissions, duplicate ACKs and zero-window advertisements.
+ *
+ * Each retransmission, duplicate ACK or zero window is printed as it happens, along with how many queries were in flight
+ * on the session at the time. At the end, queries are split into those that had a network event in their session while
+ * they ran and those that did not, and latency is compared between the two - if the slow queries are the ones that
+ * overlapped network trouble, the stall is likely in the network rather than in the database.
+ *
+ * Round trip times are measured from wherever the capture was taken: for data sent from the capture host they are true
+ * round trips, for data received they mostly measure how quickly the capture host acknowledged it.
+ */
+public class TcpStats implements Boltalyzer.ClosableConsumer<Dict>
+{
+    /** Stop tracking unacknowledged segments beyond this, in case the capture is missing one direction of a connection */
+    private static final int MAX_UNACKNOWLEDGED = 4096;
+
+    private final PrintStream out;
+    private final Map<AnalyzedSession,SessionStats> openSessions = new LinkedHashMap<>();
+    private final Map<String,DirectionStats> totals = new TreeMap<>();
+
+    private final Histogram latencyWithEvents = new Histogram();
+    private final Histogram latencyWithoutEvents = new Histogram();
+
+    public TcpStats( PrintStream out, String unit )
+    {
+        this.out = out;
+        out.println( String.format( "# Times in %s", unit ) );
+        out.println( "event\ttime\tsession\tsource\ttype\tqueriesInFlight\tdetail" );
+        out.println( "session\tname\tsource\tsegments\trttSamples\trttP50\trttP99\trttMax\tretransmissions\tduplicateAcks\tzeroWindows" );
+    }
+
+    @Override
+    public void accept( Dict packet )
+    {
+        AnalyzedSession session = packet.get( Fields.session );
+        Long seq = packet.get( Fields.tcpSeq );
+        if( session == null || seq == null )
+        {
+            return;
+        }
+
+        SessionStats stats = openSessions.get( session );
+        if( stats == null )
+        {
+            if( session.isClosed() )
+            {
+                // Stragglers after the connection was torn down, like the final ACK of a FIN, have already been reported
+                return;
+            }
+            stats = new SessionStats( session );
+            openSessions.put( session, stats );
+        }
+        String origin = packet.get( Fields.src ).toString() + ":" + packet.get( Fields.srcPort );
+        DirectionStats sender = stats.directions.computeIfAbsent( origin, o -> new DirectionStats() );
+        DirectionStats receiver = stats.other( origin );
+
+        long now = packet.get( Fields.timestamp );
+        int flags = packet.get( Fields.tcpFlags, 0 );
+        int payloadSize = packet.get( Fields.payloadSize, 0 );
+        int queriesInFlight = packet.get( Fields.queriesInFlight, 0 );
+        String source = session.logicalSource( origin );
+        sender.segments++;
+
+        // SYN and FIN each take up one sequence number, and get acknowledged like data does
+        long length = payloadSize + ((flags & TCP_SYN) != 0 ? 1 : 0) + ((flags & TCP_FIN) != 0 ? 1 : 0);
+        if( length > 0 )
+        {
+            long end = seq + length;
+            if( sender.highestEnd != -1 && before( seq, sender.highestEnd ) )
+            {
+                sender.retransmissions++;
+                event( stats, now, source, "retransmission", queriesInFlight, String.format( "seq=%d len=%d", seq, length ) );
+                sender.markRetransmitted( seq );
+            }
+            else if( sender.unacknowledged.size() < MAX_UNACKNOWLEDGED )
+            {
+                sender.unacknowledged.add( new Segment( end, now ) );
+            }
+            if( sender.highestEnd == -1 || before( sender.highestEnd, end ) )
+            {
+                sender.highestEnd = end;
+            }
+        }
+
+        if( (flags & TCP_ACK) != 0 && (flags & TCP_RST) == 0 )
+        {
+            long ack = packet.get( Fields.tcpAck );
+            int window = packet.get( Fields.tcpWindow );
+
+            boolean pureAck = length == 0;
+            if( pureAck && ack == sender.lastAck && window == sender.lastWindow && receiver != null && !receiver.unacknowledged.isEmpty() )
+            {
+                sender.duplicateAcks++;
+                event( stats, now, source, "duplicate-ack", queriesInFlight, String.format( "ack=%d", ack ) );
+            }
+
+            if( window == 0 && sender.lastWindow != 0 )
+            {
+                sender.zeroWindows++;
+                event( stats, now, source, "zero-window", queriesInFlight, String.format( "ack=%d", ack ) );
+            }
+
+            if( receiver != null )
+            {
+                receiver.acknowledge( ack, now );
+            }
+            sender.lastAck = ack;
+            sender.lastWindow = window;
+        }
+
+        for ( Dict query : packet.get( Fields.queries, emptyList() ) )
+        {
+            long started = query.get( Query.started );
+            long finished = query.get( Query.finished );
+            (stats.hadEventBetween( started, finished ) ? latencyWithEvents : latencyWithoutEvents).record( finished - started );
+        }
+
+        if( session.isClosed() )
+        {
+            openSessions.remove( session );
+            report( stats );
+        }
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        openSessions.values().forEach( this::report );
+        openSessions.clear();
+
+        out.println();
+        out.println( "source\tsegments\trttSamples\trttP50\trttP99\trttMax\tretransmissions\tduplicateAcks\tzeroWindows" );
+        totals.forEach( ( source, d ) -> out.println( describe( source, d ) ) );
+
+        long total = latencyWithEvents.count() + latencyWithoutEvents.count();
+        out.println();
+        out.println( String.format( "%d of %d queries ran while their connection had retransmissions, duplicate ACKs or zero windows",
+                latencyWithEvents.count(), total ) );
+        out.println( "  Latency of queries with network events:" );
+        latencyWithEvents.print( out, "    " );
+        out.println( "  Latency of queries without network events:" );
+        latencyWithoutEvents.print( out, "    " );
+    }
+
+    private void event( SessionStats stats, long now, String source, String type, int queriesInFlight, String detail )
+    {
+        stats.eventTimes.add( now );
+        out.println( String.format( "event\t%d\t%s\t%s\t%s\t%d\t%s", now, stats.session.name(), source, type, queriesInFlight, detail ) );
+    }
+
+    private void report( SessionStats stats )
+    {
+        for ( Map.Entry<String,DirectionStats> entry : stats.directions.entrySet() )
+        {
+            String source = stats.session.logicalSource( entry.getKey() );
+            out.println( describe( "session\t" + stats.session.name() + "\t" + source, entry.getValue() ) );
+            totals.computeIfAbsent( source, s -> new DirectionStats() ).add( entry.getValue() );
+        }
+    }
+
+    private static String describe( String name, DirectionStats d )
+    {
+        return String.format( "%s\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d", name, d.segments, d.rtt.count(),
+                d.rtt.percentile( 50 ), d.rtt.percentile( 99 ), d.rtt.max(),
+                d.retransmissions, d.duplicateAcks, d.zeroWindows );
+    }
+
+    /** Compare TCP sequence numbers, which wrap around at 2^32 */
+    private static boolean before( long a, long b )
+    {
+        return (int) (a - b) < 0;
+    }
+
+    private static class SessionStats
+    {
+        private final AnalyzedSession session;
+        private final Map<String,DirectionStats> directions = new LinkedHashMap<>( 2 );
+        private final List<Long> eventTimes = new ArrayList<>();
+
+        SessionStats( AnalyzedSession session )
+        {
+            this.session = session;
+        }
+
+        DirectionStats other( String origin )
+        {
+            for ( Map.Entry<String,DirectionStats> entry : directions.entrySet() )
+            {
+                if( !entry.getKey().equals( origin ) )
+                {
+                    return entry.getValue();
+                }
+            }
+            return null;
+        }
+
+        boolean hadEventBetween( long start, long end )
+        {
+            // Events are appended in time order, and queries finish recently, so scan backwards
+            for ( int i = eventTimes.size() - 1; i >= 0; i-- )
+            {
+                long t = eventTimes.get( i );
+                if( t < start )
+                {
+                    return false;
+                }
+                if( t <= end )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class Segment
+    {
+        private final long end;
+        private final long sent;
+        private boolean retransmitted;
+
+        Segment( long end, long sent )
+        {
+            this.end = end;
+            this.sent = sent;
+        }
+    }
+
+    /** Statistics for the segments sent from one end of a connection */
+    private static class DirectionStats
+    {
+        private final Histogram rtt = new Histogram();
+        private final Deque<Segment> unacknowledged = new ArrayDeque<>();
+
+        private long segments;
+        private long retransmissions;
+        private long duplicateAcks;
+        private long zeroWindows;
+
+        /** Sequence number just past the furthest byte sent so far, or -1 before anything has been sent */
+        private long highestEnd = -1;
+        private long lastAck = -1;
+        private int lastWindow = -1;
+
+        /** The other end acknowledged everything before the given sequence number */
+        void acknowledge( long ack, long now )
+        {
+            Segment newest = null;
+            while( !unacknowledged.isEmpty() && !before( ack, unacknowledged.peek().end ) )
+            {
+                newest = unacknowledged.poll();
+            }
+            // Karn's algorithm: an ACK for a retransmitted segment could be for either copy, so it tells us nothing
+            if( newest != null && !newest.retransmitted )
+            {
+                rtt.record( Math.max( 0, now - newest.sent ) );
+            }
+        }
+
+        void markRetransmitted( long seq )
+        {
+            for ( Segment segment : unacknowledged )
+            {
+                if( before( seq, segment.end ) )
+                {
+                    segment.retransmitted = true;
+                }
+            }
+        }
+
+        void add( DirectionStats other )
+        {
+            rtt.add( other.rtt );
+            segments += other.segments;
+            retransmissions += other.retransmissions;
+            duplicateAcks += other.duplicateAcks;
+            zeroWindows += other.zeroWindows;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Splits the wall time of each session into time spent waiting for the server to start responding, time spent
+ * streaming responses, and time the client spent idle or thinking between getting its last response and sending its
+ * next request. Sessions are printed as they close, followed by totals per client host.
+ *
+ * The split follows the session timeline packet by packet: while requests are outstanding and the server has not yet
+ * started answering the one at the head of the queue, time is counted as server time. Once it has started answering,
+ * time is counted as streaming until that request gets its summary. With no requests outstanding, the time belongs to the client.
+ */
+public class ThinkTime implements Boltalyzer.ClosableConsumer<Dict>
+{
+    private final PrintStream out;
+    private final Map<AnalyzedSession,Split> openSessions = new LinkedHashMap<>();
+    private final Map<String,Split> hosts = new TreeMap<>();
+
+    public ThinkTime( PrintStream out, String unit )
+    {
+        this.out = out;
+        out.println( String.format( "# Times in %s", unit ) );
+        out.println( "session\thost\twall\tserver\tstreaming\tclient\tserverPct\tstreamingPct\tclientPct\tqueries" );
+    }
+
+    @Override
+    public void accept( Dict packet )
+    {
+        AnalyzedSession session = packet.get( Fields.session );
+        if( session == null )
+        {
+            return;
+        }
+
+        List<Dict> messages = packet.get( Fields.messages, emptyList() );
+        Split split = openSessions.get( session );
+        if( split == null && !messages.isEmpty() && !session.isClosed() )
+        {
+            split = new Split( 1 );
+            openSessions.put( session, split );
+        }
+
+        if( split != null && !messages.isEmpty() )
+        {
+            split.advance( packet.get( Fields.timestamp ) );
+            if( "Server".equals( packet.get( Fields.logicalSource ) ) )
+            {
+                // The server is answering the request at the head of the queue until it sends a summary
+                String last = messages.get( messages.size() - 1 ).get( Fields.Message.type );
+                split.responding = !(last.equals( "SUCCESS" ) || last.equals( "FAILURE" ) || last.equals( "IGNORED" ));
+            }
+            split.outstanding = packet.get( Fields.requestsInFlight, 0 );
+            split.queries += packet.get( Fields.queries, emptyList() ).size();
+        }
+
+        if( split != null && session.isClosed() )
+        {
+            openSessions.remove( session );
+            report( session, split );
+        }
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        openSessions.forEach( this::report );
+        openSessions.clear();
+
+        out.println();
+        out.println( "host\tsessions\twall\tserver\tstreaming\tclient\tserverPct\tstreamingPct\tclientPct\tqueries" );
+        hosts.forEach( ( host, split ) -> out.println( describe( host, Long.toString( split.sessions ), split ) ) );
+    }
+
+    private void report( AnalyzedSession session, Split split )
+    {
+        if( split.lastTimestamp == split.firstTimestamp )
+        {
+            // A single packet, like a handshake on a connection that went nowhere, has no time to split up
+            return;
+        }
+        String host = session.clientHost();
+        out.println( describe( session.name(), host, split ) );
+        hosts.computeIfAbsent( host, h -> new Split( 0 ) ).add( split );
+    }
+
+    private static String describe( String name, String secondColumn, Split split )
+    {
+        long wall = split.server + split.streaming + split.client;
+        return String.format( "%s\t%s\t%d\t%d\t%d\t%d\t%.1f%%\t%.1f%%\t%.1f%%\t%d", name, secondColumn, wall,
+                split.server, split.streaming, split.client,
+                percent( split.server, wall ), percent( split.streaming, wall ), percent( split.client, wall ),
+                split.queries );
+    }
+
+    private static double percent( long part, long whole )
+    {
+        return whole == 0 ? 0 : part * 100.0 / whole;
+    }
+
+    private static class Split
+    {
+        private long server;
+        private long streaming;
+        private long client;
+        private long queries;
+        private long sessions;
+
+        private long firstTimestamp = -1;
+        private long lastTimestamp = -1;
+        private int outstanding = 0;
+        private boolean responding = false;
+
+        Split( long sessions )
+        {
+            this.sessions = sessions;
+        }
+
+        /** Attribute the time since the last packet according to what the session was waiting for during that time */
+        void advance( long now )
+        {
+            if( lastTimestamp == -1 )
+            {
+                firstTimestamp = now;
+            }
+            else
+            {
+                long elapsed = now - lastTimestamp;
+                if( outstanding == 0 )
+                {
+                    client += elapsed;
+                }
+                else if( responding )
+                {
+                    streaming += elapsed;
+                }
+                else
+                {
+                    server += elapsed;
+                }
+            }
+            lastTimestamp = now;
+        }
+
+        void add( Split other )
+        {
+            server += other.server;
+            streaming += other.streaming;
+            client += other.client;
+            queries += other.queries;
+            sessions += other.sessions;
+        }
+    }
+}
@@ -86,6 +86,20 @@ public class TimeMapper
         }
     }
 
+    /** How many microseconds one unit of {@link Fields#timestamp} represents, given the unit chosen with {@link #unitForName(String)} */
+    public static long microsPerUnit( String unit )
+    {
+        switch( unit )
+        {
+        case "us":
+            return 1;
+        case "ms":
+            return 1000;
+        default:
+            throw new RuntimeException( "Don't know how to convert to `" + unit + "`." );
+        }
+    }
+
     private static class GlobalIncremental implements Function<Dict, Dict>
     {
         private final Field<Long> timestampKey;
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.neo4j.kernel.api.exceptions.Status;
+import org.neo4j.tools.boltalyzer.Fields.Message;
+import org.neo4j.tools.boltalyzer.Fields.Query;
+import org.neo4j.tools.boltalyzer.serialize.Bolt2JSON;
+import org.neo4j.tools.boltalyzer.stats.Fingerprint;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Writes the capture in the Chrome trace event format, to look at in chrome://tracing or the Perfetto UI.
+ *
+ * Each client host is a process, and each connection from it a thread. Every query is a span from its RUN to the final
+ * response of its PULL_ALL or DISCARD_ALL, named after its fingerprint, with the time until the first record arrived
+ * as a span nested inside it. Handshakes, INIT and RESET are instant events on the connection they happened on.
+ *
+ * Spans on one thread must nest, so a query that was sent while an earlier one in the same session was still
+ * running - pipelining - goes on an extra thread for that connection, named as such.
+ *
+ * Events are written as the capture is read, so the file is not in time order; the trace viewers don't mind.
+ */
+public class TraceExport implements Boltalyzer.ClosableConsumer<Dict>
+{
+    private static final int MAX_NAME_LENGTH = 100;
+
+    private final PrintStream out;
+    private final Path path;
+    private final long microsPerUnit;
+    private final JsonGenerator generator;
+    private final Map<String,Integer> processes = new HashMap<>();
+    private final Map<AnalyzedSession,Connection> connections = new HashMap<>();
+    private int connectionCount;
+    private int threads;
+    private long spans;
+
+    /** @param microsPerUnit unit of the packet timestamps, see {@link TimeMapper#microsPerUnit(String)} */
+    public TraceExport( PrintStream out, Path path, long microsPerUnit ) throws IOException
+    {
+        this.out = out;
+        this.path = path;
+        this.microsPerUnit = microsPerUnit;
+        this.generator = Bolt2JSON.streamingMapper().getJsonFactory().createJsonGenerator(
+                new BufferedOutputStream( Files.newOutputStream( path ), 1 << 16 ), JsonEncoding.UTF8 );
+        generator.writeStartObject();
+        generator.writeStringField( "displayTimeUnit", "ms" );
+        generator.writeArrayFieldStart( "traceEvents" );
+    }
+
+    @Override
+    public void accept( Dict packet )
+    {
+        AnalyzedSession session = packet.get( Fields.session );
+        if( session == null )
+        {
+            return;
+        }
+        try
+        {
+            long ts = packet.get( Fields.timestamp ) * microsPerUnit;
+            for ( Dict message : packet.get( Fields.messages, emptyList() ) )
+            {
+                String type = message.get( Message.type );
+                if( type.equals( "<HANDSHAKE>" ) || type.equals( "INIT" ) || type.equals( "RESET" ) )
+                {
+                    Connection connection = connection( session );
+                    instant( type.equals( "<HANDSHAKE>" ) ? "HANDSHAKE" : type, ts, connection.pid, connection.lanes.get( 0 ) );
+                }
+            }
+
+            for ( Dict query : packet.get( Fields.queries, emptyList() ) )
+            {
+                query( connection( session ), query );
+            }
+
+            if( session.isClosed() )
+            {
+                connections.remove( session );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * The connection to draw the events of a session on. This is only set up once there is something to draw, by when the
+     * client side is known, so the session lands under the right host; and so the packets trailing the teardown of a
+     * connection, with nothing to draw, don't leave a connection of their own behind.
+     */
+    private Connection connection( AnalyzedSession session ) throws IOException
+    {
+        Connection connection = connections.get( session );
+        if( connection == null )
+        {
+            connection = new Connection( session );
+            connections.put( session, connection );
+        }
+        return connection;
+    }
+
+    private void query( Connection connection, Dict query ) throws IOException
+    {
+        long start = query.get( Query.started ) * microsPerUnit;
+        long end = query.get( Query.finished ) * microsPerUnit;
+        int tid = connection.lane( start, end );
+        String statement = query.get( Message.statement );
+
+        generator.writeStartObject();
+        generator.writeStringField( "name", Boltalyzer.ellipsis( Fingerprint.of( statement ), MAX_NAME_LENGTH ) );
+        generator.writeStringField( "cat", "query" );
+        generator.writeStringField( "ph", "X" );
+        generator.writeNumberField( "ts", start );
+        generator.writeNumberField( "dur", end - start );
+        generator.writeNumberField( "pid", connection.pid );
+        generator.writeNumberField( "tid", tid );
+        generator.writeObjectFieldStart( "args" );
+        generator.writeStringField( "statement", statement );
+        generator.writeNumberField( "queryNo", query.get( Message.queryNo ) );
+        generator.writeStringField( "outcome", query.get( Query.outcome ) );
+        Status status = query.get( Query.status );
+        if( status != null )
+        {
+            generator.writeStringField( "status", status.code().serialize() );
+        }
+        generator.writeNumberField( "records", query.get( Query.records ) );
+        generator.writeNumberField( "resultBytes", query.get( Query.resultBytes ) );
+        generator.writeEndObject();
+        generator.writeEndObject();
+        spans++;
+
+        if( query.has( Query.firstRecord ) )
+        {
+            generator.writeStartObject();
+            generator.writeStringField( "name", "first record" );
+            generator.writeStringField( "cat", "query" );
+            generator.writeStringField( "ph", "X" );
+            generator.writeNumberField( "ts", start );
+            generator.writeNumberField( "dur", query.get( Query.firstRecord ) * microsPerUnit - start );
+            generator.writeNumberField( "pid", connection.pid );
+            generator.writeNumberField( "tid", tid );
+            generator.writeEndObject();
+        }
+    }
+
+    private void instant( String name, long ts, int pid, int tid ) throws IOException
+    {
+        generator.writeStartObject();
+        generator.writeStringField( "name", name );
+        generator.writeStringField( "cat", "connection" );
+        generator.writeStringField( "ph", "i" );
+        generator.writeStringField( "s", "t" );
+        generator.writeNumberField( "ts", ts );
+        generator.writeNumberField( "pid", pid );
+        generator.writeNumberField( "tid", tid );
+        generator.writeEndObject();
+    }
+
+    private void metadata( String name, int pid, Integer tid, String value ) throws IOException
+    {
+        generator.writeStartObject();
+        generator.writeStringField( "name", name );
+        generator.writeStringField( "ph", "M" );
+        generator.writeNumberField( "pid", pid );
+        if( tid != null )
+        {
+            generator.writeNumberField( "tid", tid );
+        }
+        generator.writeObjectFieldStart( "args" );
+        generator.writeStringField( "name", value );
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.close();
+        out.println( String.format( "Traced %d queries over %d connections from %d hosts into %s",
+                spans, connectionCount, processes.size(), path ) );
+    }
+
+    /** The threads a connection is drawn on: one, plus one more for each level of pipelining */
+    private class Connection
+    {
+        private final AnalyzedSession session;
+        private final int pid;
+        private final List<Integer> lanes = new ArrayList<>();
+        /** When the last query on each lane finished */
+        private final List<Long> laneEnds = new ArrayList<>();
+
+        Connection( AnalyzedSession session ) throws IOException
+        {
+            this.session = session;
+            String host = session.clientHost();
+            Integer pid = processes.get( host );
+            if( pid == null )
+            {
+                pid = processes.size() + 1;
+                processes.put( host, pid );
+                metadata( "process_name", pid, null, host );
+            }
+            this.pid = pid;
+            connectionCount++;
+            addLane();
+        }
+
+        /** The thread to draw a query on, the first one where it does not overlap the queries already there */
+        int lane( long start, long end ) throws IOException
+        {
+            int lane = 0;
+            while( lane < laneEnds.size() && laneEnds.get( lane ) > start )
+            {
+                lane++;
+            }
+            if( lane == laneEnds.size() )
+            {
+                addLane();
+            }
+            laneEnds.set( lane, end );
+            return lanes.get( lane );
+        }
+
+        private void addLane() throws IOException
+        {
+            int tid = ++threads;
+            lanes.add( tid );
+            laneEnds.add( Long.MIN_VALUE );
+            metadata( "thread_name", pid, tid, lanes.size() == 1 ? session.name() :
+                    String.format( "%s pipelined %d", session.name(), lanes.size() - 1 ) );
+        }
+    }
+}
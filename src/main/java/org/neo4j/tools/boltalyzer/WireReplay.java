@@ -0,0 +1,642 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.neo4j.bolt.v1.messaging.Neo4jPack;
+import org.neo4j.bolt.v1.packstream.PackStream;
+import org.neo4j.bolt.v1.packstream.PackedInputArray;
+import org.neo4j.bolt.v1.packstream.PackedOutputArray;
+import org.neo4j.tools.boltalyzer.bolt1.MessageFramer;
+import org.neo4j.tools.boltalyzer.stats.Histogram;
+import org.neo4j.tools.boltalyzer.stats.LatencyComparison;
+import org.neo4j.tools.boltalyzer.timing.ReplayClock;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.neo4j.bolt.v1.messaging.PackStreamMessageFormatV1.MessageTypes.MSG_DISCARD_ALL;
+import static org.neo4j.bolt.v1.messaging.PackStreamMessageFormatV1.MessageTypes.MSG_FAILURE;
+import static org.neo4j.bolt.v1.messaging.PackStreamMessageFormatV1.MessageTypes.MSG_IGNORED;
+import static org.neo4j.bolt.v1.messaging.PackStreamMessageFormatV1.MessageTypes.MSG_INIT;
+import static org.neo4j.bolt.v1.messaging.PackStreamMessageFormatV1.MessageTypes.MSG_PULL_ALL;
+import static org.neo4j.bolt.v1.messaging.PackStreamMessageFormatV1.MessageTypes.MSG_RECORD;
+import static org.neo4j.bolt.v1.messaging.PackStreamMessageFormatV1.MessageTypes.MSG_RUN;
+import static org.neo4j.bolt.v1.messaging.PackStreamMessageFormatV1.MessageTypes.MSG_SUCCESS;
+
+/**
+ * Replays captured traffic at the connection level: the Bolt bytes each client sent are re-sent as-is over a
+ * connection of their own, at the same offset from the start of the capture and in the same batches as they were
+ * captured. Server responses are only framed, not decoded, to match them with the requests they answer and time them.
+ *
+ * Pipelining depth is kept as well: a packet is held back until the replayed connection has no more requests awaiting a
+ * response than the captured connection had when the packet was sent. Otherwise a client that waited for a slow query
+ * to finish before sending its next request - or worse, a RESET - would interfere with that query if the target is
+ * slower than the original server.
+ *
+ * All connections are driven by a single thread using non-blocking IO. The pipeline thread hands it packets through a
+ * bounded queue, so a capture larger than memory can be replayed.
+ *
+ * If the target has credentials, the INIT message of each connection is re-written to use them, otherwise the captured
+ * credentials are sent as they were.
+ *
+ * When the {@link ReplayClock} ignores captured timing, packets are sent as soon as pipelining depth allows, so each
+ * connection sends its next batch as soon as the target has answered what the captured client was waiting for.
+ *
+ * Query latency is recorded per statement into a {@link LatencyComparison} together with the captured latency of the
+ * same statements, counting both from when the RUN was actually sent and from when it was due.
+ */
+public class WireReplay implements Boltalyzer.ClosableConsumer<Dict>
+{
+    private static final int QUEUE_SIZE = 16 * 1024;
+    private static final long DRAIN_TIMEOUT_NS = TimeUnit.MINUTES.toNanos( 1 );
+    private static final List<String> REQUESTS = asList( "INIT", "RUN", "PULL_ALL", "DISCARD_ALL", "RESET", "ACK_FAILURE" );
+
+    private final PrintStream out;
+    private final InetSocketAddress target;
+    private final Map<String,Object> authToken;
+    private final ReplayClock clock;
+    private final LatencyComparison latencies;
+
+    private final Map<AnalyzedSession,Connection> connections = new HashMap<>();
+    private final BlockingQueue<Action> actions = new ArrayBlockingQueue<>( QUEUE_SIZE );
+    private final Thread ioThread;
+    private volatile Throwable ioFailure;
+
+    // Everything below is only touched by the IO thread
+    private final Selector selector;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect( 64 * 1024 );
+    private final Set<Connection> open = new HashSet<>();
+    private final Map<String,Histogram> responseTimes = new TreeMap<>();
+    private final Histogram queryLatency = new Histogram();
+    private final Histogram sendLateness = new Histogram();
+    private long connectionCount;
+    private long failedConnections;
+    private long requests;
+    private long bytesSent;
+    private long bytesReceived;
+    private long records;
+    private long failures;
+    private long ignored;
+
+    public WireReplay( PrintStream out, String connectionString, ReplayClock clock, LatencyComparison latencies ) throws IOException
+    {
+        URI uri = URI.create( connectionString );
+        this.out = out;
+        this.target = new InetSocketAddress( uri.getHost(), uri.getPort() == -1 ? 7687 : uri.getPort() );
+        this.authToken = authToken( uri.getUserInfo() );
+        this.clock = clock;
+        this.latencies = latencies;
+        this.selector = Selector.open();
+        this.ioThread = new Thread( this::run, "boltalyzer-wire-replay" );
+        this.ioThread.start();
+
+        out.println( "Replaying connections against " + target );
+    }
+
+    /** The packets {@link #accept(Dict)} consults the clock for: every packet of a session */
+    public static Predicate<Dict> clockedPackets()
+    {
+        return packet -> packet.get( Fields.session ) != null;
+    }
+
+    @Override
+    public void accept( Dict packet )
+    {
+        AnalyzedSession session = packet.get( Fields.session );
+        if( session == null )
+        {
+            return;
+        }
+
+        long dueNs = clock.dueNs( packet.get( Fields.timestamp ) );
+        for ( Dict query : packet.get( Fields.queries, emptyList() ) )
+        {
+            if( "SUCCESS".equals( query.get( Fields.Query.outcome ) ) )
+            {
+                latencies.captured( query.get( Fields.Message.statement ),
+                        clock.durationMicros( query.get( Fields.Query.finished ) - query.get( Fields.Query.started ) ) );
+            }
+        }
+
+        ByteBuffer bolt = packet.get( Fields.clientBolt );
+        Connection connection = connections.get( session );
+        if( connection == null && bolt != null && bolt.hasRemaining() && !session.isClosed() )
+        {
+            connection = new Connection( session.name() );
+            connections.put( session, connection );
+        }
+        if( connection == null )
+        {
+            return;
+        }
+
+        if( bolt != null && bolt.hasRemaining() )
+        {
+            int requestsInPacket = 0;
+            List<String> statements = new ArrayList<>();
+            for ( Dict message : packet.get( Fields.messages, emptyList() ) )
+            {
+                String type = message.get( Fields.Message.type );
+                requestsInPacket += REQUESTS.contains( type ) ? 1 : 0;
+                if( type.equals( BoltMessageDescriber.MSG_RUN ) )
+                {
+                    statements.add( message.get( Fields.Message.statement ) );
+                }
+            }
+            int depthBefore = Math.max( 0, packet.get( Fields.requestsInFlight, 0 ) - requestsInPacket );
+            enqueue( new Action( dueNs, connection, bolt, depthBefore, statements ) );
+        }
+        if( session.isClosed() )
+        {
+            connections.remove( session );
+            enqueue( new Action( dueNs, connection, null, 0, emptyList() ) );
+        }
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        enqueue( new Action( -1, null, null, 0, emptyList() ) );
+        ioThread.join();
+        if( ioFailure != null )
+        {
+            throw new RuntimeException( "Wire replay failed: " + ioFailure.getMessage(), ioFailure );
+        }
+
+        out.println();
+        out.println( String.format( "Replayed %d connections (%d could not connect), sending %d requests in %d bytes",
+                connectionCount, failedConnections, requests, bytesSent ) );
+        out.println( String.format( "Received %d bytes, %d records, %d failures, %d ignored", bytesReceived, records, failures, ignored ) );
+        out.println( "Query latency, RUN sent until result fully received (us):" );
+        queryLatency.print( out, "  " );
+        out.println( "Response time per request type (us):" );
+        responseTimes.forEach( ( type, h ) -> out.println( String.format( "  %-12s %s", type, h.summary() ) ) );
+        out.println( "Send lateness, actual send time minus captured offset (us):" );
+        out.println( "  " + sendLateness.summary() );
+        out.println();
+        latencies.print( out );
+    }
+
+    private void enqueue( Action action )
+    {
+        try
+        {
+            while( !actions.offer( action, 100, TimeUnit.MILLISECONDS ) )
+            {
+                if( !ioThread.isAlive() )
+                {
+                    throw new RuntimeException( "Wire replay stopped unexpectedly", ioFailure );
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( e );
+        }
+    }
+
+    private void run()
+    {
+        try
+        {
+            long drainDeadline = -1;
+            while( true )
+            {
+                Action next = actions.peek();
+                while( next != null && next.connection != null && next.dueNs <= System.nanoTime() )
+                {
+                    actions.poll();
+                    perform( next );
+                    next = actions.peek();
+                }
+                if( next != null && next.connection == null && drainDeadline == -1 )
+                {
+                    // No more packets; let outstanding requests finish
+                    actions.poll();
+                    drainDeadline = System.nanoTime() + DRAIN_TIMEOUT_NS;
+                }
+                if( drainDeadline != -1 && (open.isEmpty() || System.nanoTime() > drainDeadline) )
+                {
+                    break;
+                }
+
+                long waitMs = next == null || next.connection == null ? 1 : (next.dueNs - System.nanoTime()) / 1_000_000;
+                if( waitMs > 0 )
+                {
+                    selector.select( Math.min( waitMs, 100 ) );
+                }
+                else
+                {
+                    selector.selectNow();
+                }
+                for ( SelectionKey key : selector.selectedKeys() )
+                {
+                    handle( key );
+                }
+                selector.selectedKeys().clear();
+            }
+
+            for ( Connection connection : open )
+            {
+                if( !connection.awaiting.isEmpty() )
+                {
+                    out.println( String.format( "%s: gave up waiting for %d responses", connection.name, connection.awaiting.size() ) );
+                }
+                connection.channel.close();
+            }
+            selector.close();
+        }
+        catch ( Throwable e )
+        {
+            ioFailure = e;
+        }
+    }
+
+    private void perform( Action action ) throws IOException
+    {
+        Connection connection = action.connection;
+        if( connection.channel == null )
+        {
+            if( action.bytes == null )
+            {
+                return;
+            }
+            connectionCount++;
+            connection.channel = SocketChannel.open();
+            connection.channel.configureBlocking( false );
+            connection.channel.socket().setTcpNoDelay( true );
+            connection.channel.connect( target );
+            connection.channel.register( selector, SelectionKey.OP_CONNECT, connection );
+            open.add( connection );
+        }
+        if( !connection.failed )
+        {
+            connection.ready.add( action );
+            connection.sendReady();
+        }
+    }
+
+    private void handle( SelectionKey key ) throws IOException
+    {
+        Connection connection = (Connection) key.attachment();
+        if( !key.isValid() )
+        {
+            return;
+        }
+        try
+        {
+            if( key.isConnectable() )
+            {
+                connection.channel.finishConnect();
+                connection.connected = true;
+            }
+            if( key.isReadable() )
+            {
+                readBuffer.clear();
+                int read = connection.channel.read( readBuffer );
+                if( read == -1 )
+                {
+                    connection.close();
+                    return;
+                }
+                bytesReceived += read;
+                readBuffer.flip();
+                connection.serverFramer.feed( readBuffer, connection::responseEnded );
+                connection.sendReady();
+            }
+            if( connection.connected )
+            {
+                connection.flush();
+                connection.closeIfDone();
+            }
+        }
+        catch ( IOException e )
+        {
+            if( !connection.failed )
+            {
+                failedConnections += connection.connected ? 0 : 1;
+                out.println( String.format( "%s: %s", connection.name, e.getMessage() ) );
+            }
+            connection.failed = true;
+            connection.close();
+        }
+    }
+
+    private Histogram responseTime( int signature )
+    {
+        return responseTimes.computeIfAbsent( MessageFramer.typeName( signature ), t -> new Histogram() );
+    }
+
+    /** Re-encode an INIT message with the given credentials, keeping the user agent it had */
+    private static byte[] rewriteInit( byte[] chunkedInit, Map<String,Object> authToken ) throws IOException
+    {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for ( int i = 0; i + 1 < chunkedInit.length; )
+        {
+            int size = ((chunkedInit[i] & 0xFF) << 8) | (chunkedInit[i + 1] & 0xFF);
+            content.write( chunkedInit, i + 2, size );
+            i += 2 + size;
+        }
+
+        PackStream.Unpacker unpacker = new PackStream.Unpacker( new PackedInputArray( content.toByteArray() ) );
+        unpacker.unpackStructHeader();
+        unpacker.unpackStructSignature();
+        String userAgent = unpacker.unpackString();
+
+        PackedOutputArray packed = new PackedOutputArray();
+        Neo4jPack.Packer packer = new Neo4jPack.Packer( packed );
+        packer.packStructHeader( 2, MSG_INIT );
+        packer.pack( userAgent );
+        packer.packRawMap( authToken );
+        packer.flush();
+        byte[] message = packed.bytes();
+
+        ByteArrayOutputStream chunked = new ByteArrayOutputStream( message.length + 4 );
+        for ( int offset = 0; offset < message.length; offset += 0xFFFF )
+        {
+            int size = Math.min( 0xFFFF, message.length - offset );
+            chunked.write( size >> 8 );
+            chunked.write( size & 0xFF );
+            chunked.write( message, offset, size );
+        }
+        chunked.write( 0 );
+        chunked.write( 0 );
+        return chunked.toByteArray();
+    }
+
+    private static Map<String,Object> authToken( String userInfo )
+    {
+        if( userInfo == null )
+        {
+            return null;
+        }
+        String[] usernamePassword = userInfo.split( ":" );
+        Map<String,Object> token = new HashMap<>();
+        token.put( "scheme", "basic" );
+        token.put( "principal", usernamePassword[0] );
+        token.put( "credentials", usernamePassword.length > 1 ? usernamePassword[1] : "" );
+        return token;
+    }
+
+    private static class Action
+    {
+        private final long dueNs;
+        /** Connection to act on, or null to signal the end of the capture */
+        private final Connection connection;
+        /** Bytes to send, or null to close the connection */
+        private final ByteBuffer bytes;
+        /** Requests the captured connection was waiting on responses to when these bytes were sent */
+        private final int depthBefore;
+        /** Statements of the RUN messages that end in these bytes, in order */
+        private final List<String> statements;
+
+        Action( long dueNs, Connection connection, ByteBuffer bytes, int depthBefore, List<String> statements )
+        {
+            this.dueNs = dueNs;
+            this.connection = connection;
+            this.bytes = bytes;
+            this.depthBefore = depthBefore;
+            this.statements = statements;
+        }
+    }
+
+    private static class Request
+    {
+        private final int signature;
+        private final long sentNs;
+        /** For PULL_ALL and DISCARD_ALL, the RUN they go with, or null */
+        private final Run run;
+
+        Request( int signature, long sentNs, Run run )
+        {
+            this.signature = signature;
+            this.sentNs = sentNs;
+            this.run = run;
+        }
+    }
+
+    private static class Run
+    {
+        private final long sentNs;
+        /** When the RUN should have been sent, according to the capture */
+        private final long dueNs;
+        /** Captured statement, or null if it could not be told from the capture */
+        private final String statement;
+
+        Run( long sentNs, long dueNs, String statement )
+        {
+            this.sentNs = sentNs;
+            this.dueNs = dueNs;
+            this.statement = statement;
+        }
+    }
+
+    private class Connection
+    {
+        private final String name;
+        private final MessageFramer clientFramer = new MessageFramer( MessageFramer.CLIENT_HANDSHAKE_SIZE );
+        private final MessageFramer serverFramer = new MessageFramer( MessageFramer.SERVER_HANDSHAKE_SIZE );
+        private final Deque<ByteBuffer> writes = new ArrayDeque<>();
+        private final Deque<Request> awaiting = new ArrayDeque<>();
+        /** Actions that are due, held back until the pipelining depth allows them */
+        private final Deque<Action> ready = new ArrayDeque<>();
+
+        /** Bytes held back while waiting for the end of the INIT message, so it can be re-written */
+        private ByteArrayOutputStream heldForInit = authToken == null ? null : new ByteArrayOutputStream();
+        private Run lastRun;
+
+        private SocketChannel channel;
+        private boolean connected;
+        private boolean closeRequested;
+        private boolean failed;
+
+        Connection( String name )
+        {
+            this.name = name;
+        }
+
+        void sendReady() throws IOException
+        {
+            while( !ready.isEmpty() && (ready.peek().bytes == null || awaiting.size() <= ready.peek().depthBefore) )
+            {
+                Action action = ready.poll();
+                if( action.bytes == null )
+                {
+                    closeRequested = true;
+                    closeIfDone();
+                    return;
+                }
+                long now = System.nanoTime();
+                sendLateness.record( Math.max( 0, now - action.dueNs ) / 1000 );
+                send( action, now );
+            }
+        }
+
+        private void send( Action action, long now ) throws IOException
+        {
+            ByteBuffer bytes = action.bytes;
+            int start = bytes.position();
+            int[] initEnd = {-1};
+            int[] runs = {0};
+            // With no captured timing to keep to, a query is due when the client got around to sending it
+            long dueNs = clock.isMax() ? now : action.dueNs;
+            clientFramer.feed( bytes.duplicate(), ( signature, end ) -> {
+                requests++;
+                if( signature == MSG_RUN )
+                {
+                    String statement = runs[0] < action.statements.size() ? action.statements.get( runs[0] ) : null;
+                    runs[0]++;
+                    lastRun = new Run( now, dueNs, statement );
+                }
+                boolean streams = signature == MSG_PULL_ALL || signature == MSG_DISCARD_ALL;
+                awaiting.add( new Request( signature, now, streams ? lastRun : null ) );
+                if( signature == MSG_INIT )
+                {
+                    initEnd[0] = end;
+                }
+            } );
+
+            if( heldForInit == null )
+            {
+                queue( bytes );
+                return;
+            }
+
+            if( initEnd[0] == -1 )
+            {
+                heldForInit.write( bytes.array(), bytes.arrayOffset() + start, bytes.remaining() );
+                return;
+            }
+
+            // The handshake goes out as-is, the INIT with the target credentials, and whatever followed it as-is
+            heldForInit.write( bytes.array(), bytes.arrayOffset() + start, initEnd[0] - start );
+            byte[] held = heldForInit.toByteArray();
+            heldForInit = null;
+            int handshake = Math.min( MessageFramer.CLIENT_HANDSHAKE_SIZE, held.length );
+            byte[] init = new byte[held.length - handshake];
+            System.arraycopy( held, handshake, init, 0, init.length );
+
+            queue( ByteBuffer.wrap( held, 0, handshake ) );
+            queue( ByteBuffer.wrap( rewriteInit( init, authToken ) ) );
+            bytes.position( initEnd[0] );
+            if( bytes.hasRemaining() )
+            {
+                queue( bytes );
+            }
+        }
+
+        private void queue( ByteBuffer bytes ) throws IOException
+        {
+            bytesSent += bytes.remaining();
+            writes.add( bytes );
+            if( connected )
+            {
+                flush();
+            }
+        }
+
+        void flush() throws IOException
+        {
+            while( !writes.isEmpty() )
+            {
+                ByteBuffer head = writes.peek();
+                channel.write( head );
+                if( head.hasRemaining() )
+                {
+                    break;
+                }
+                writes.poll();
+            }
+            channel.keyFor( selector ).interestOps( writes.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE );
+        }
+
+        void responseEnded( int signature, int end )
+        {
+            long now = System.nanoTime();
+            if( signature == MSG_RECORD )
+            {
+                records++;
+                return;
+            }
+
+            Request request = awaiting.poll();
+            if( request == null )
+            {
+                return;
+            }
+            if( signature == MSG_FAILURE )
+            {
+                failures++;
+            }
+            else if( signature == MSG_IGNORED )
+            {
+                ignored++;
+            }
+            responseTime( request.signature ).record( (now - request.sentNs) / 1000 );
+            if( request.run != null && signature == MSG_SUCCESS )
+            {
+                long serviceUs = (now - request.run.sentNs) / 1000;
+                queryLatency.record( serviceUs );
+                if( request.run.statement != null )
+                {
+                    latencies.replayed( request.run.statement, serviceUs, (now - request.run.dueNs) / 1000 );
+                }
+            }
+        }
+
+        /** Close once the client has gone away and every request it made has been answered */
+        void closeIfDone() throws IOException
+        {
+            if( closeRequested && writes.isEmpty() && awaiting.isEmpty() )
+            {
+                close();
+            }
+        }
+
+        void close() throws IOException
+        {
+            open.remove( this );
+            channel.close();
+        }
+    }
+}
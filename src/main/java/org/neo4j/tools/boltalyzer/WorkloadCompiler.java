@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.neo4j.bolt.v1.messaging.Neo4jPack;
+import org.neo4j.bolt.v1.packstream.PackedOutputArray;
+import org.neo4j.tools.boltalyzer.Fields.Message;
+import org.neo4j.tools.boltalyzer.Fields.Query;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Writes what replay needs from a capture to a compact workload file, so the capture only has to be parsed once no
+ * matter how many times it is replayed. See {@link WorkloadReader} for reading it back.
+ *
+ * The file is a header followed by a stream of records, each starting with a type byte. Statements and session names
+ * are written once, the first time they are used, and referred to by number after that. Parameters are kept
+ * PackStream-encoded, the way they were on the wire. Timestamps are in microseconds.
+ *
+ * <pre>
+ * header     "BOLTWKLD" int:version
+ * SESSION    'N' int:session utf:name
+ * STATEMENT  'S' int:statement int:length bytes:utf8
+ * RUN        'R' long:timestamp int:session int:statement int:length bytes:packstream-params
+ * CAPTURED   'Q' long:timestamp int:session int:statement long:latency    (a query as it went in the capture)
+ * CLOSE      'C' long:timestamp int:session
+ * END        'E'
+ * </pre>
+ */
+public class WorkloadCompiler implements Boltalyzer.ClosableConsumer<Dict>
+{
+    static final byte[] MAGIC = "BOLTWKLD".getBytes( StandardCharsets.US_ASCII );
+    static final int VERSION = 1;
+    static final byte SESSION = 'N';
+    static final byte STATEMENT = 'S';
+    static final byte RUN = 'R';
+    static final byte CAPTURED = 'Q';
+    static final byte CLOSE = 'C';
+    static final byte END = 'E';
+
+    private final PrintStream out;
+    private final Path path;
+    private final long microsPerUnit;
+    private final DataOutputStream file;
+    private final Map<AnalyzedSession,Integer> sessions = new HashMap<>();
+    private final Map<String,Integer> statements = new HashMap<>();
+    private int sessionCount;
+    private long queries;
+
+    /** @param microsPerUnit unit of the packet timestamps, see {@link TimeMapper#microsPerUnit(String)} */
+    public WorkloadCompiler( PrintStream out, Path path, long microsPerUnit ) throws IOException
+    {
+        this.out = out;
+        this.path = path;
+        this.microsPerUnit = microsPerUnit;
+        this.file = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( path.toFile() ), 1 << 16 ) );
+        file.write( MAGIC );
+        file.writeInt( VERSION );
+    }
+
+    @Override
+    public void accept( Dict packet )
+    {
+        AnalyzedSession session = packet.get( Fields.session );
+        if( session == null )
+        {
+            return;
+        }
+        try
+        {
+            long timestamp = packet.get( Fields.timestamp ) * microsPerUnit;
+            for ( Dict message : packet.get( Fields.messages, emptyList() ) )
+            {
+                if( message.get( Message.type ).equals( BoltMessageDescriber.MSG_RUN ) )
+                {
+                    int statement = statement( message.get( Message.statement ) );
+                    byte[] params = pack( message.get( Message.params ) );
+                    int id = session( session );
+                    file.writeByte( RUN );
+                    file.writeLong( timestamp );
+                    file.writeInt( id );
+                    file.writeInt( statement );
+                    file.writeInt( params.length );
+                    file.write( params );
+                    queries++;
+                }
+            }
+            for ( Dict query : packet.get( Fields.queries, emptyList() ) )
+            {
+                if( "SUCCESS".equals( query.get( Query.outcome ) ) )
+                {
+                    int statement = statement( query.get( Message.statement ) );
+                    int id = session( session );
+                    file.writeByte( CAPTURED );
+                    file.writeLong( timestamp );
+                    file.writeInt( id );
+                    file.writeInt( statement );
+                    file.writeLong( (query.get( Query.finished ) - query.get( Query.started )) * microsPerUnit );
+                }
+            }
+            if( session.isClosed() && sessions.containsKey( session ) )
+            {
+                file.writeByte( CLOSE );
+                file.writeLong( timestamp );
+                file.writeInt( sessions.remove( session ) );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        file.writeByte( END );
+        file.close();
+        out.println( String.format( "Compiled %d queries in %d sessions, using %d distinct statements, into %s (%d bytes)",
+                queries, sessionCount, statements.size(), path, Files.size( path ) ) );
+    }
+
+    private int session( AnalyzedSession session ) throws IOException
+    {
+        Integer id = sessions.get( session );
+        if( id == null )
+        {
+            id = sessionCount++;
+            sessions.put( session, id );
+            file.writeByte( SESSION );
+            file.writeInt( id );
+            file.writeUTF( session.name() );
+        }
+        return id;
+    }
+
+    private int statement( String statement ) throws IOException
+    {
+        Integer id = statements.get( statement );
+        if( id == null )
+        {
+            id = statements.size();
+            statements.put( statement, id );
+            byte[] utf8 = statement.getBytes( StandardCharsets.UTF_8 );
+            file.writeByte( STATEMENT );
+            file.writeInt( id );
+            file.writeInt( utf8.length );
+            file.write( utf8 );
+        }
+        return id;
+    }
+
+    private static byte[] pack( Map<String,Object> params ) throws IOException
+    {
+        PackedOutputArray packed = new PackedOutputArray();
+        Neo4jPack.Packer packer = new Neo4jPack.Packer( packed );
+        packer.packRawMap( params == null ? Collections.emptyMap() : params );
+        packer.flush();
+        return packed.bytes();
+    }
+}
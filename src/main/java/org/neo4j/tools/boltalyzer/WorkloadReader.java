@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.neo4j.bolt.v1.messaging.Neo4jPack;
+import org.neo4j.bolt.v1.packstream.PackedInputArray;
+import org.neo4j.tools.boltalyzer.Fields.Message;
+import org.neo4j.tools.boltalyzer.Fields.Query;
+
+import static java.util.Collections.singletonList;
+import static org.neo4j.tools.boltalyzer.Dict.dict;
+
+/**
+ * Reads a workload file written by {@link WorkloadCompiler} back as a stream of packets, carrying the same fields the
+ * analysis pipeline would have put on them for replay: the session, the RUN messages and the queries as captured.
+ *
+ * The file is memory mapped a window at a time, so files much larger than memory, or than the 2GB a single mapping
+ * can cover, are read without copying them into the heap. Closing the stream unmaps nothing right away; the windows
+ * go when they are garbage collected.
+ */
+public class WorkloadReader implements Iterator<Dict>, AutoCloseable
+{
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private final long microsPerUnit;
+    private final Map<Integer,AnalyzedSession> sessions = new HashMap<>();
+    private final List<String> statements = new ArrayList<>();
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private Dict next;
+    private boolean ended;
+
+    /** True if the file at the given path is a workload rather than a capture */
+    public static boolean isWorkload( Path path ) throws IOException
+    {
+        byte[] magic = new byte[WorkloadCompiler.MAGIC.length];
+        try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) )
+        {
+            return channel.read( ByteBuffer.wrap( magic ) ) == magic.length && Arrays.equals( magic, WorkloadCompiler.MAGIC );
+        }
+    }
+
+    /**
+     * @param microsPerUnit unit the packet timestamps should be in, see {@link TimeMapper#microsPerUnit(String)}
+     */
+    public static Stream<Dict> packets( Path path, long microsPerUnit ) throws IOException
+    {
+        WorkloadReader reader = new WorkloadReader( path, microsPerUnit );
+        return StreamSupport.stream( Spliterators.spliteratorUnknownSize( reader, Spliterator.ORDERED | Spliterator.NONNULL ), false )
+                .onClose( () -> {
+                    try
+                    {
+                        reader.close();
+                    }
+                    catch ( IOException e )
+                    {
+                        throw new UncheckedIOException( e );
+                    }
+                } );
+    }
+
+    WorkloadReader( Path path, long microsPerUnit ) throws IOException
+    {
+        this.channel = FileChannel.open( path, StandardOpenOption.READ );
+        this.size = Files.size( path );
+        this.microsPerUnit = microsPerUnit;
+        this.window = channel.map( FileChannel.MapMode.READ_ONLY, 0, Math.min( size, WINDOW_SIZE ) );
+
+        ensure( WorkloadCompiler.MAGIC.length + 4 );
+        byte[] magic = new byte[WorkloadCompiler.MAGIC.length];
+        window.get( magic );
+        int version = window.getInt();
+        if( !Arrays.equals( magic, WorkloadCompiler.MAGIC ) || version != WorkloadCompiler.VERSION )
+        {
+            throw new IOException( path + " is not a version " + WorkloadCompiler.VERSION + " workload file" );
+        }
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        try
+        {
+            while( next == null && !ended )
+            {
+                next = readRecord();
+            }
+            return next != null;
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    @Override
+    public Dict next()
+    {
+        if( !hasNext() )
+        {
+            throw new NoSuchElementException();
+        }
+        Dict packet = next;
+        next = null;
+        return packet;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /** Read one record, returning the packet it describes, or null if it only defines a session or statement */
+    private Dict readRecord() throws IOException
+    {
+        ensure( 1 );
+        byte type = window.get();
+        switch ( type )
+        {
+        case WorkloadCompiler.SESSION:
+        {
+            ensure( 6 );
+            int id = window.getInt();
+            int length = window.getShort() & 0xFFFF;
+            sessions.put( id, new AnalyzedSession( string( length ), id ) );
+            return null;
+        }
+        case WorkloadCompiler.STATEMENT:
+        {
+            ensure( 8 );
+            int id = window.getInt();
+            statements.add( id, string( window.getInt() ) );
+            return null;
+        }
+        case WorkloadCompiler.RUN:
+        {
+            ensure( 20 );
+            Dict packet = packet( window.getLong(), window.getInt() );
+            String statement = statements.get( window.getInt() );
+            byte[] params = new byte[window.getInt()];
+            ensure( params.length );
+            window.get( params );
+            return packet.put( Fields.messages, singletonList( dict(
+                    Message.type, BoltMessageDescriber.MSG_RUN,
+                    Message.statement, statement,
+                    Message.params, new Neo4jPack.Unpacker( new PackedInputArray( params ) ).unpackMap() ) ) );
+        }
+        case WorkloadCompiler.CAPTURED:
+        {
+            ensure( 24 );
+            Dict packet = packet( window.getLong(), window.getInt() );
+            String statement = statements.get( window.getInt() );
+            long latency = window.getLong() / microsPerUnit;
+            return packet.put( Fields.queries, singletonList( dict(
+                    Query.outcome, "SUCCESS",
+                    Message.statement, statement,
+                    Query.started, 0L,
+                    Query.finished, latency ) ) );
+        }
+        case WorkloadCompiler.CLOSE:
+        {
+            ensure( 12 );
+            Dict packet = packet( window.getLong(), window.getInt() );
+            packet.get( Fields.session ).observeTcpFlags( "workload", PCAPParser.TCP_RST );
+            return packet;
+        }
+        case WorkloadCompiler.END:
+            ended = true;
+            return null;
+        default:
+            throw new IOException( String.format( "Corrupt workload file, unknown record type %d at offset %d",
+                    type, windowStart + window.position() - 1 ) );
+        }
+    }
+
+    private Dict packet( long timestamp, int session )
+    {
+        AnalyzedSession analyzed = sessions.get( session );
+        return new Dict()
+                .put( Fields.timestamp, timestamp / microsPerUnit )
+                .put( Fields.session, analyzed )
+                .put( Fields.connectionKey, analyzed.name() );
+    }
+
+    private String string( int length ) throws IOException
+    {
+        ensure( length );
+        byte[] utf8 = new byte[length];
+        window.get( utf8 );
+        return new String( utf8, StandardCharsets.UTF_8 );
+    }
+
+    /** Make sure the next bytes are mapped, moving the window up to start at the current position if they are not */
+    private void ensure( int bytes ) throws IOException
+    {
+        if( window.remaining() >= bytes )
+        {
+            return;
+        }
+        long position = windowStart + window.position();
+        if( position + bytes > size )
+        {
+            throw new IOException( "Workload file is truncated at offset " + position );
+        }
+        windowStart = position;
+        window = channel.map( FileChannel.MapMode.READ_ONLY, position, Math.min( size - position, Math.max( bytes, WINDOW_SIZE ) ) );
+    }
+}
@@ -2,39 +2,85 @@ package org.neo4j.tools.boltalyzer.bolt1;
 
 import io.netty.buffer.ByteBuf;
 import org.neo4j.bolt.v1.messaging.MessageHandler;
-import org.neo4j.bolt.v1.transport.ChunkedInput;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 public class Dechunker {
-    private final ChunkedInput input;
+    /** Told how each message was framed on the wire, right before the message itself is decoded */
+    public interface FramingListener
+    {
+        /**
+         * @param chunkSizes size of each chunk in the message, only the first {@code chunkCount} entries are valid
+         * @param chunkCount number of non-empty chunks the message was split into
+         * @param segments number of calls to {@link #handle(ByteBuf)} - eg. TCP segments - the message was spread over
+         */
+        void messageFramed( int[] chunkSizes, int chunkCount, int segments );
+
+        /**
+         * Called instead of decoding a message that was only partly captured, see {@link #skip(int)}.
+         * @param signature the message type, or -1 if the start of the message was not captured either
+         */
+        void messageTruncated( int signature );
+    }
+
+    /** Bytes taken up by a message without fields: chunk header, struct marker, signature and end-of-message marker */
+    private static final int FIELDLESS_MESSAGE = 6;
+
+    private final MessageInput input;
     private final MessageFormat.Reader unpacker;
     private final MessageHandler<RuntimeException> onMessage;
-    private final Runnable onMessageStarted;
+    private final FramingListener onMessageFramed;
 
     public enum State
     {
         AWAITING_CHUNK,
         IN_CHUNK,
         IN_HEADER,
+        /** Bytes that held a chunk header were not captured, so message boundaries are unknown until {@link #resync()} */
+        LOST,
         CLOSED
     }
 
     private State state = State.AWAITING_CHUNK;
     private int chunkSize = 0;
 
-    public Dechunker( MessageHandler<RuntimeException> messageHandler, Runnable onMessageStarted )
+    // Framing of the message currently being read
+    private int[] chunkSizes = new int[4];
+    private int chunkCount = 0;
+    private int segments = 0;
+    private boolean segmentCounted = false;
+
+    // Whether part of the message currently being read was not captured, and the first two bytes of it that were
+    private boolean truncated = false;
+    private final byte[] head = new byte[2];
+    private int headLength = 0;
+
+    public Dechunker( MessageHandler<RuntimeException> messageHandler, FramingListener onMessageFramed )
+    {
+        this( messageHandler, onMessageFramed, true );
+    }
+
+    /** @param decodeRecords see {@link MessageFormat.Reader#Reader(Unpacker, boolean)} */
+    public Dechunker( MessageHandler<RuntimeException> messageHandler, FramingListener onMessageFramed, boolean decodeRecords )
     {
         this.onMessage = messageHandler;
-        this.onMessageStarted = onMessageStarted;
-        this.input = new ChunkedInput();
-        this.unpacker = new MessageFormat.Reader( new Unpacker( input ) );
+        this.onMessageFramed = onMessageFramed;
+        this.input = new MessageInput();
+        this.unpacker = new MessageFormat.Reader( new Unpacker( input ), decodeRecords );
     }
 
     public void handle( ByteBuf data ) throws IOException
     {
+        segmentCounted = false;
         while ( data.readableBytes() > 0 )
         {
+            if ( !segmentCounted )
+            {
+                segments++;
+                segmentCounted = true;
+            }
+
             switch ( state )
             {
                 case AWAITING_CHUNK:
@@ -65,12 +111,14 @@ public class Dechunker {
                     if ( chunkSize < data.readableBytes() )
                     {
                         // Current packet is larger than current chunk, slice of the chunk
+                        keepHead( data );
                         input.append( data.readSlice( chunkSize ) );
                         state = State.AWAITING_CHUNK;
                     }
                     else if ( chunkSize == data.readableBytes() )
                     {
                         // Current packet perfectly maps to current chunk
+                        keepHead( data );
                         input.append( data );
                         state = State.AWAITING_CHUNK;
                         return;
@@ -78,12 +126,14 @@ public class Dechunker {
                     else
                     {
                         // Current packet is smaller than the chunk we're reading, split the current chunk itself up
+                        keepHead( data );
                         chunkSize -= data.readableBytes();
                         input.append( data );
                         return;
                     }
                     break;
                 }
+                case LOST:
                 case CLOSED:
                 {
                     // No-op
@@ -93,6 +143,92 @@ public class Dechunker {
         }
     }
 
+    /**
+     * The next {@code count} bytes of the stream went over the wire, but were cut off by the capture snap length. As
+     * long as they fall inside a chunk, framing is kept and the message they are part of is reported as truncated
+     * rather than decoded; if a chunk header was among them, the stream is {@link State#LOST}.
+     *
+     * The exception is when all that is missing after a chunk is two bytes: clients and servers flush whole messages,
+     * so those are taken to be the end-of-message marker. Likewise, eight bytes are taken to be the end-of-message
+     * marker followed by a message without fields, whose type is unknown.
+     */
+    public void skip( int count ) throws IOException
+    {
+        if ( count > 0 && !segmentCounted )
+        {
+            segments++;
+            segmentCounted = true;
+        }
+        while ( count > 0 )
+        {
+            switch ( state )
+            {
+                case IN_CHUNK:
+                {
+                    int skipped = Math.min( chunkSize, count );
+                    chunkSize -= skipped;
+                    count -= skipped;
+                    truncated = true;
+                    if ( chunkSize == 0 )
+                    {
+                        state = State.AWAITING_CHUNK;
+                    }
+                    break;
+                }
+                case AWAITING_CHUNK:
+                case IN_HEADER:
+                {
+                    // Bytes of the chunk header still to come, the first may have been read already
+                    int header = state == State.IN_HEADER ? 1 : 2;
+                    boolean endOfMessage = chunkCount > 0 && (state == State.AWAITING_CHUNK || chunkSize == 0);
+                    if ( endOfMessage && (count == header || count == header + FIELDLESS_MESSAGE) )
+                    {
+                        chunkSize = 0;
+                        handleHeader();
+                        if ( count > header )
+                        {
+                            // Requests are often sent along with one that has no fields, like RUN and PULL_ALL
+                            onMessageFramed.messageFramed( new int[]{2}, 1, 1 );
+                            onMessageFramed.messageTruncated( -1 );
+                        }
+                        return;
+                    }
+                    state = State.LOST;
+                    return;
+                }
+                default:
+                    return;
+            }
+        }
+    }
+
+    /** True if message boundaries have been lost in a truncated capture, see {@link #skip(int)} */
+    public boolean isLost()
+    {
+        return state == State.LOST;
+    }
+
+    /** Start over, treating the next byte handed in as the start of a message */
+    public void resync()
+    {
+        input.clear();
+        chunkCount = 0;
+        segments = 0;
+        segmentCounted = false;
+        truncated = false;
+        headLength = 0;
+        state = State.AWAITING_CHUNK;
+    }
+
+    /** Keep the first bytes of each message, which is all we can tell a truncated message by */
+    private void keepHead( ByteBuf data )
+    {
+        for ( int i = 0; headLength < head.length && i < data.readableBytes() && i < chunkSize; i++ )
+        {
+            head[headLength++] = data.getByte( data.readerIndex() + i );
+        }
+    }
+
     private void handleHeader() throws IOException
     {
         if(chunkSize == 0)
@@ -100,17 +236,36 @@ public class Dechunker {
             // Message boundary
             try
             {
-                onMessageStarted.run();
-                unpacker.read( onMessage );
+                onMessageFramed.messageFramed( chunkSizes, chunkCount, segments );
+                if ( truncated )
+                {
+                    // Messages are PackStream structs: a marker byte 0xB0 plus the field count, then the signature
+                    boolean struct = headLength == head.length && (head[0] & 0xF0) == 0xB0;
+                    onMessageFramed.messageTruncated( struct ? head[1] & 0xFF : -1 );
+                }
+                else
+                {
+                    unpacker.read( onMessage );
+                }
             }
             finally
             {
                 input.clear();
+                truncated = false;
+                headLength = 0;
+                chunkCount = 0;
+                segments = 0;
+                segmentCounted = false;
             }
             state = State.AWAITING_CHUNK;
         }
         else
         {
+            if ( chunkCount == chunkSizes.length )
+            {
+                chunkSizes = Arrays.copyOf( chunkSizes, chunkCount * 2 );
+            }
+            chunkSizes[chunkCount++] = chunkSize;
             state = State.IN_CHUNK;
         }
     }
@@ -0,0 +1,176 @@
+package org.neo4j.tools.boltalyzer.bolt1;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.neo4j.bolt.v1.messaging.BoltIOException;
+import org.neo4j.bolt.v1.messaging.PathPack;
+import org.neo4j.bolt.v1.messaging.infrastructure.ValueUnboundRelationship;
+import org.neo4j.bolt.v1.packstream.PackType;
+import org.neo4j.kernel.api.exceptions.Status;
+import org.neo4j.tools.boltalyzer.serialize.Bolt2JSON;
+
+import java.io.IOException;
+
+import static org.neo4j.bolt.v1.messaging.Neo4jPack.NODE;
+import static org.neo4j.bolt.v1.messaging.Neo4jPack.PATH;
+import static org.neo4j.bolt.v1.messaging.Neo4jPack.RELATIONSHIP;
+import static org.neo4j.bolt.v1.messaging.Neo4jPack.UNBOUND_RELATIONSHIP;
+import static org.neo4j.bolt.v1.packstream.PackStream.UNKNOWN_SIZE;
+
+/**
+ * Reads PackStream values and writes them as JSON in the same pass, without first building the maps, lists and
+ * graph entities that {@link Unpacker} would. Nodes and relationships come out the way
+ * {@link Bolt2JSON} writes them: ["NODE", id, labels, properties] and ["RELATIONSHIP", id, [start, type, end],
+ * properties]. Map entries come out in the order they were sent.
+ *
+ * Paths and relationships without their end nodes are rare enough that they are unpacked as objects and serialized
+ * by {@link Bolt2JSON} instead.
+ */
+public class JsonTranscoder
+{
+    private final Unpacker unpacker;
+
+    public JsonTranscoder( Unpacker unpacker )
+    {
+        this.unpacker = unpacker;
+    }
+
+    /** Read the next value, writing it to the given generator */
+    public void transcode( JsonGenerator out ) throws IOException
+    {
+        PackType type = unpacker.peekNextType();
+        switch ( type )
+        {
+            case STRING:
+                out.writeString( unpacker.unpackString() );
+                break;
+            case INTEGER:
+                out.writeNumber( unpacker.unpackLong() );
+                break;
+            case FLOAT:
+                out.writeNumber( unpacker.unpackDouble() );
+                break;
+            case BOOLEAN:
+                out.writeBoolean( unpacker.unpackBoolean() );
+                break;
+            case NULL:
+                unpacker.unpackNull();
+                out.writeNull();
+                break;
+            case LIST:
+                transcodeList( out );
+                break;
+            case MAP:
+                transcodeMap( out );
+                break;
+            case STRUCT:
+                transcodeStruct( out );
+                break;
+            default:
+                throw new BoltIOException( Status.Request.InvalidFormat, "Unknown value type: " + type );
+        }
+    }
+
+    private void transcodeList( JsonGenerator out ) throws IOException
+    {
+        long size = unpacker.unpackListHeader();
+        out.writeStartArray();
+        if ( size == UNKNOWN_SIZE )
+        {
+            while ( unpacker.peekNextType() != PackType.END_OF_STREAM )
+            {
+                transcode( out );
+            }
+            unpacker.unpackEndOfStream();
+        }
+        else
+        {
+            for ( long i = 0; i < size; i++ )
+            {
+                transcode( out );
+            }
+        }
+        out.writeEndArray();
+    }
+
+    private void transcodeMap( JsonGenerator out ) throws IOException
+    {
+        long size = unpacker.unpackMapHeader();
+        out.writeStartObject();
+        if ( size == UNKNOWN_SIZE )
+        {
+            while ( unpacker.peekNextType() != PackType.END_OF_STREAM )
+            {
+                transcodeEntry( out );
+            }
+            unpacker.unpackEndOfStream();
+        }
+        else
+        {
+            for ( long i = 0; i < size; i++ )
+            {
+                transcodeEntry( out );
+            }
+        }
+        out.writeEndObject();
+    }
+
+    private void transcodeEntry( JsonGenerator out ) throws IOException
+    {
+        PackType keyType = unpacker.peekNextType();
+        if ( keyType != PackType.STRING )
+        {
+            throw new BoltIOException( Status.Request.Invalid,
+                    "Map keys must be strings, got " + keyType );
+        }
+        out.writeFieldName( unpacker.unpackString() );
+        transcode( out );
+    }
+
+    private void transcodeStruct( JsonGenerator out ) throws IOException
+    {
+        unpacker.unpackStructHeader();
+        char signature = unpacker.unpackStructSignature();
+        switch ( signature )
+        {
+            case NODE:
+            {
+                out.writeStartArray();
+                out.writeString( "NODE" );
+                out.writeNumber( unpacker.unpackLong() );
+                transcodeList( out );
+                transcodeMap( out );
+                out.writeEndArray();
+                break;
+            }
+            case RELATIONSHIP:
+            {
+                out.writeStartArray();
+                out.writeString( "RELATIONSHIP" );
+                out.writeNumber( unpacker.unpackLong() );
+                long start = unpacker.unpackLong();
+                long end = unpacker.unpackLong();
+                out.writeStartArray();
+                out.writeNumber( start );
+                out.writeString( unpacker.unpackString() );
+                out.writeNumber( end );
+                out.writeEndArray();
+                transcodeMap( out );
+                out.writeEndArray();
+                break;
+            }
+            case UNBOUND_RELATIONSHIP:
+            {
+                out.writeObject( ValueUnboundRelationship.unpackFields( unpacker ) );
+                break;
+            }
+            case PATH:
+            {
+                out.writeObject( new PathPack.Unpacker().unpackFields( unpacker ) );
+                break;
+            }
+            default:
+                throw new BoltIOException( Status.Request.InvalidFormat,
+                        "Unknown struct type: " + Integer.toHexString( signature ) );
+        }
+    }
+}
@@ -40,10 +40,23 @@ public class MessageFormat {
     public static class Reader implements org.neo4j.bolt.v1.messaging.MessageFormat.Reader
     {
         private final Unpacker unpacker;
+        private final boolean decodeRecords;
 
         public Reader( Unpacker unpacker )
+        {
+            this( unpacker, true );
+        }
+
+        /**
+         * @param decodeRecords if false, RECORD messages are handed to the handler without their fields, and the
+         *                      bytes making up the fields are left unread; useful when only the size of results matter.
+         *                      If true, the fields are handed over still packed, as a {@link PackedRecord}, so
+         *                      they can be written out without being unpacked into objects
+         */
+        public Reader( Unpacker unpacker, boolean decodeRecords )
         {
             this.unpacker = unpacker;
+            this.decodeRecords = decodeRecords;
         }
 
         @Override
@@ -148,13 +161,12 @@ public class MessageFormat {
         private <E extends Exception> void unpackRecordMessage( MessageHandler<E> output )
                 throws E, IOException
         {
-            long length = unpacker.unpackListHeader();
-            final Object[] fields = new Object[(int) length];
-            for ( int i = 0; i < length; i++ )
+            if( !decodeRecords )
             {
-                fields[i] = unpacker.unpack();
+                output.handleRecordMessage( record() );
+                return;
             }
-            output.handleRecordMessage( record( fields ) );
+            output.handleRecordMessage( new PackedRecord( unpacker.unpackRemaining() ) );
         }
 
         private <E extends Exception> void unpackRunMessage( MessageHandler<E> output )
@@ -0,0 +1,86 @@
+package org.neo4j.tools.boltalyzer.bolt1;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds message boundaries in a Bolt byte stream without decoding the messages, reporting the signature of each one.
+ * This is much cheaper than {@link Dechunker}, for when only the flow of messages is of interest - like when replaying.
+ */
+public class MessageFramer
+{
+    public static final int CLIENT_HANDSHAKE_SIZE = 20;
+    public static final int SERVER_HANDSHAKE_SIZE = 4;
+
+    public interface Listener
+    {
+        /**
+         * @param signature the message type, see {@link org.neo4j.bolt.v1.messaging.PackStreamMessageFormatV1.MessageTypes}
+         * @param end position in the buffer handed to {@link #feed(ByteBuffer, Listener)} just past the end-of-message marker
+         */
+        void messageEnded( int signature, int end );
+    }
+
+    private int handshakeRemaining;
+    private int chunkRemaining = 0;
+    private int headerHighByte = -1;
+    private int messageOffset = 0;
+    private int signature = -1;
+
+    /** @param handshakeSize bytes of handshake at the start of the stream, see {@link #CLIENT_HANDSHAKE_SIZE} and {@link #SERVER_HANDSHAKE_SIZE} */
+    public MessageFramer( int handshakeSize )
+    {
+        this.handshakeRemaining = handshakeSize;
+    }
+
+    /** Consume all remaining bytes in the buffer, telling the listener about each message that ends in it */
+    public void feed( ByteBuffer data, Listener listener )
+    {
+        while( data.hasRemaining() )
+        {
+            if( handshakeRemaining > 0 )
+            {
+                int skip = Math.min( handshakeRemaining, data.remaining() );
+                handshakeRemaining -= skip;
+                data.position( data.position() + skip );
+            }
+            else if( chunkRemaining > 0 )
+            {
+                int n = Math.min( chunkRemaining, data.remaining() );
+                // Messages are structs, so the signature is the byte after the struct marker
+                if( messageOffset <= 1 && messageOffset + n > 1 )
+                {
+                    signature = data.get( data.position() + 1 - messageOffset ) & 0xFF;
+                }
+                messageOffset += n;
+                chunkRemaining -= n;
+                data.position( data.position() + n );
+            }
+            else if( headerHighByte == -1 )
+            {
+                headerHighByte = data.get() & 0xFF;
+            }
+            else
+            {
+                int chunkSize = (headerHighByte << 8) | (data.get() & 0xFF);
+                headerHighByte = -1;
+                if( chunkSize > 0 )
+                {
+                    chunkRemaining = chunkSize;
+                }
+                else if( messageOffset > 0 )
+                {
+                    listener.messageEnded( signature, data.position() );
+                    messageOffset = 0;
+                    signature = -1;
+                }
+            }
+        }
+    }
+
+    /** Human readable name of a message signature, eg. "RUN" */
+    public static String typeName( int signature )
+    {
+        String name = MessageFormat.messageTypeName( signature );
+        return name.startsWith( "MSG_" ) ? name.substring( 4 ) : name;
+    }
+}
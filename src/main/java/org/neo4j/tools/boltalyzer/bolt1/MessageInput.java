@@ -0,0 +1,98 @@
+package org.neo4j.tools.boltalyzer.bolt1;
+
+import io.netty.buffer.ByteBuf;
+import org.neo4j.bolt.v1.packstream.PackInput;
+import org.neo4j.bolt.v1.transport.ChunkedInput;
+
+import java.io.IOException;
+
+/**
+ * The chunks of the message being decoded, keeping count of how many of its bytes are left to read, so the rest of a
+ * message can be taken in one go, see {@link Unpacker#unpackRemaining()}.
+ */
+class MessageInput implements PackInput
+{
+    private final ChunkedInput chunks = new ChunkedInput();
+    private int remaining;
+
+    void append( ByteBuf data )
+    {
+        remaining += data.readableBytes();
+        chunks.append( data );
+    }
+
+    void clear()
+    {
+        chunks.clear();
+        remaining = 0;
+    }
+
+    /** Bytes of the message not read yet */
+    int remaining()
+    {
+        return remaining;
+    }
+
+    @Override
+    public boolean hasMoreData() throws IOException
+    {
+        return chunks.hasMoreData();
+    }
+
+    @Override
+    public byte readByte() throws IOException
+    {
+        byte value = chunks.readByte();
+        remaining -= 1;
+        return value;
+    }
+
+    @Override
+    public short readShort() throws IOException
+    {
+        short value = chunks.readShort();
+        remaining -= 2;
+        return value;
+    }
+
+    @Override
+    public int readInt() throws IOException
+    {
+        int value = chunks.readInt();
+        remaining -= 4;
+        return value;
+    }
+
+    @Override
+    public long readLong() throws IOException
+    {
+        long value = chunks.readLong();
+        remaining -= 8;
+        return value;
+    }
+
+    @Override
+    public double readDouble() throws IOException
+    {
+        double value = chunks.readDouble();
+        remaining -= 8;
+        return value;
+    }
+
+    @Override
+    public PackInput readBytes( byte[] into, int offset, int toRead ) throws IOException
+    {
+        if ( toRead > 0 )
+        {
+            chunks.readBytes( into, offset, toRead );
+            remaining -= toRead;
+        }
+        return this;
+    }
+
+    @Override
+    public byte peekByte() throws IOException
+    {
+        return chunks.peekByte();
+    }
+}
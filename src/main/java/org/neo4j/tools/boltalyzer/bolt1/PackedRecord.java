@@ -0,0 +1,51 @@
+package org.neo4j.tools.boltalyzer.bolt1;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.neo4j.bolt.v1.packstream.PackedInputArray;
+import org.neo4j.bolt.v1.runtime.spi.Record;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The fields of a RECORD message, kept as the PackStream bytes they were sent as. Written to JSON with
+ * {@link #transcode(Transcoder, JsonGenerator)}, straight from those bytes to the generator; {@link #fields()} only
+ * unpacks them for anyone who needs them as objects.
+ */
+public class PackedRecord implements Record
+{
+    /** A PackStream list of the fields, header included */
+    private final byte[] packedFields;
+
+    public PackedRecord( byte[] packedFields )
+    {
+        this.packedFields = packedFields;
+    }
+
+    /** Write the fields to the given generator as a JSON array, reading them with the given transcoder */
+    public void transcode( Transcoder transcoder, JsonGenerator out ) throws IOException
+    {
+        transcoder.input.reset( packedFields );
+        transcoder.json.transcode( out );
+    }
+
+    @Override
+    public Object[] fields()
+    {
+        try
+        {
+            return new Unpacker( new PackedInputArray( packedFields ) ).unpackList().toArray();
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /** Transcodes one record after another through the same unpacker, so writing a record allocates nothing of its own */
+    public static class Transcoder
+    {
+        private final ReusableInputArray input = new ReusableInputArray();
+        private final JsonTranscoder json = new JsonTranscoder( new Unpacker( input ) );
+    }
+}
@@ -0,0 +1,100 @@
+package org.neo4j.tools.boltalyzer.bolt1;
+
+import org.neo4j.bolt.v1.messaging.BoltIOException;
+import org.neo4j.bolt.v1.packstream.PackInput;
+import org.neo4j.kernel.api.exceptions.Status;
+
+import java.io.IOException;
+
+/**
+ * Like {@link org.neo4j.bolt.v1.packstream.PackedInputArray}, but can be pointed at another array with
+ * {@link #reset(byte[])}, so one unpacker can read any number of them.
+ */
+public class ReusableInputArray implements PackInput
+{
+    private byte[] bytes = new byte[0];
+    private int position;
+
+    /** Read the given bytes from the start, forgetting about the previous ones */
+    public ReusableInputArray reset( byte[] bytes )
+    {
+        this.bytes = bytes;
+        this.position = 0;
+        return this;
+    }
+
+    @Override
+    public boolean hasMoreData()
+    {
+        return position < bytes.length;
+    }
+
+    @Override
+    public byte readByte() throws IOException
+    {
+        ensure( 1 );
+        return bytes[position++];
+    }
+
+    @Override
+    public short readShort() throws IOException
+    {
+        ensure( 2 );
+        return (short) ((bytes[position++] & 0xFF) << 8 | bytes[position++] & 0xFF);
+    }
+
+    @Override
+    public int readInt() throws IOException
+    {
+        ensure( 4 );
+        int value = 0;
+        for ( int i = 0; i < 4; i++ )
+        {
+            value = value << 8 | bytes[position++] & 0xFF;
+        }
+        return value;
+    }
+
+    @Override
+    public long readLong() throws IOException
+    {
+        ensure( 8 );
+        long value = 0;
+        for ( int i = 0; i < 8; i++ )
+        {
+            value = value << 8 | bytes[position++] & 0xFF;
+        }
+        return value;
+    }
+
+    @Override
+    public double readDouble() throws IOException
+    {
+        return Double.longBitsToDouble( readLong() );
+    }
+
+    @Override
+    public PackInput readBytes( byte[] into, int offset, int toRead ) throws IOException
+    {
+        ensure( toRead );
+        System.arraycopy( bytes, position, into, offset, toRead );
+        position += toRead;
+        return this;
+    }
+
+    @Override
+    public byte peekByte() throws IOException
+    {
+        ensure( 1 );
+        return bytes[position];
+    }
+
+    private void ensure( int count ) throws BoltIOException
+    {
+        if ( bytes.length - position < count )
+        {
+            throw new BoltIOException( Status.Request.InvalidFormat,
+                    String.format( "Needed %d more bytes, but only %d are left", count, bytes.length - position ) );
+        }
+    }
+}
@@ -23,10 +23,31 @@ import static org.neo4j.bolt.v1.packstream.PackStream.UNKNOWN_SIZE;
 
 public class Unpacker extends Neo4jPack.Unpacker {
     private PathPack.Unpacker pathUnpacker = new PathPack.Unpacker();
+    /** Set when reading from a dechunked message, whose rest can be taken as it is */
+    private final MessageInput message;
 
     public Unpacker( PackInput input )
     {
         super( input );
+        this.message = null;
+    }
+
+    Unpacker( MessageInput message )
+    {
+        super( message );
+        this.message = message;
+    }
+
+    /** Read whatever is left of the message as it is, eg. its fields once its header has been unpacked */
+    public byte[] unpackRemaining() throws IOException
+    {
+        if ( message == null )
+        {
+            throw new IllegalStateException( "Only the rest of a message being dechunked can be read as it is" );
+        }
+        byte[] remaining = new byte[message.remaining()];
+        message.readBytes( remaining, 0, remaining.length );
+        return remaining;
     }
 
     @Override
@@ -3,26 +3,40 @@ package org.neo4j.tools.boltalyzer.serialize;
 import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.JsonProcessingException;
 import org.codehaus.jackson.Version;
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
 import org.codehaus.jackson.map.JsonSerializer;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.SerializationConfig;
 import org.codehaus.jackson.map.SerializerProvider;
 import org.codehaus.jackson.map.module.SimpleModule;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
 
+import org.neo4j.bolt.v1.runtime.spi.Record;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.tools.boltalyzer.Dict;
+import org.neo4j.tools.boltalyzer.bolt1.PackedRecord;
 
 public class Bolt2JSON {
     private final static ObjectMapper mapper = new ObjectMapper().withModule(create());
+    private final static ObjectMapper streamingMapper = new ObjectMapper().withModule(create())
+            .configure(SerializationConfig.Feature.FLUSH_AFTER_WRITE_VALUE, false);
 
     public static ObjectMapper mapper() {
         return mapper;
     }
 
+    /** Like {@link #mapper()}, but leaves flushing to the caller, for writing many values through one buffered generator */
+    public static ObjectMapper streamingMapper() {
+        return streamingMapper;
+    }
+
     public static SimpleModule create()
     {
         SimpleModule module = new SimpleModule("BoltSerialization", Version.unknownVersion());
@@ -30,8 +44,15 @@ public class Bolt2JSON {
         module.addSerializer(new NodeSerializer());
         module.addSerializer(new RelationshipSerializer());
         module.addSerializer(new RelationshipTypeSerializer());
+        module.addSerializer(new RecordSerializer());
+        module.addSerializer(new PackedRecordSerializer());
+        module.setMixInAnnotation(Dict.class, DictMixin.class);
         return module;
     }
+
+    /** Wire framing is attached to messages for analysis, but is not part of what the message said */
+    @JsonIgnoreProperties({"wireSize", "wireChunks", "wireSegments"})
+    interface DictMixin {}
 }
 
 class LabelSerializer extends JsonSerializer<Label> {
@@ -92,4 +113,38 @@ class RelationshipSerializer extends JsonSerializer<Relationship> {
         g.writeObject(value.getAllProperties());
         g.writeEndArray();
     }
-}
\ No newline at end of file
+}
+
+class RecordSerializer extends JsonSerializer<Record> {
+    @Override
+    public Class<Record> handledType() {
+        return Record.class;
+    }
+
+    @Override
+    public void serialize(Record value, JsonGenerator g, SerializerProvider provider) throws IOException, JsonProcessingException {
+        g.writeObject(value.fields());
+    }
+}
+
+/**
+ * Writes the fields straight from their PackStream bytes to the generator, without unpacking them into objects. Each
+ * generator gets a transcoder of its own to do that with, kept for as long as the generator is around.
+ */
+class PackedRecordSerializer extends JsonSerializer<PackedRecord> {
+    private final Map<JsonGenerator,PackedRecord.Transcoder> transcoders = new WeakHashMap<>();
+
+    @Override
+    public Class<PackedRecord> handledType() {
+        return PackedRecord.class;
+    }
+
+    @Override
+    public void serialize(PackedRecord value, JsonGenerator g, SerializerProvider provider) throws IOException, JsonProcessingException {
+        PackedRecord.Transcoder transcoder;
+        synchronized (transcoders) {
+            transcoder = transcoders.computeIfAbsent(g, generator -> new PackedRecord.Transcoder());
+        }
+        value.transcode(transcoder, g);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer.stats;
+
+import java.util.regex.Pattern;
+
+/**
+ * Reduces a statement to its shape, so statements that only differ in literal values or whitespace are counted as one.
+ * Well-behaved clients use parameters and need none of this, but plenty of captured traffic has values inlined.
+ */
+public class Fingerprint
+{
+    private static final Pattern STRING_LITERAL = Pattern.compile( "'(?:[^'\\\\]|\\\\.)*'|\"(?:[^\"\\\\]|\\\\.)*\"" );
+    private static final Pattern NUMBER_LITERAL = Pattern.compile( "(?<![\\w$.])\\d+(?:\\.\\d+)?(?:[eE][-+]?\\d+)?\\b" );
+    private static final Pattern LITERAL_LIST = Pattern.compile( "\\?(?:\\s*,\\s*\\?)+" );
+    private static final Pattern WHITESPACE = Pattern.compile( "\\s+" );
+
+    /** Eg. {@code MATCH (n:User {id: 12}) RETURN n} becomes {@code MATCH (n:User {id: ?}) RETURN n} */
+    public static String of( String statement )
+    {
+        String shape = STRING_LITERAL.matcher( statement ).replaceAll( "?" );
+        shape = NUMBER_LITERAL.matcher( shape ).replaceAll( "?" );
+        shape = LITERAL_LIST.matcher( shape ).replaceAll( "?" );
+        return WHITESPACE.matcher( shape ).replaceAll( " " ).trim();
+    }
+}
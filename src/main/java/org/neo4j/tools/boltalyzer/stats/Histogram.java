@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer.stats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Fixed-memory histogram of non-negative values. Values are put in log-linear buckets, meaning each power of two is split
+ * into a fixed number of equally wide buckets. The relative error of any reported value is bounded by the precision
+ * chosen at construction, and memory use stays the same no matter how many values are recorded.
+ */
+public class Histogram
+{
+    private final int precisionBits;
+    private final int subBucketCount;
+    private final int subBucketHalfCount;
+    private final long[] counts;
+
+    private long total = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    /** A histogram with roughly 3% precision, suitable for latencies */
+    public Histogram()
+    {
+        this( 6 );
+    }
+
+    /**
+     * @param precisionBits each power of two is split into 2^(precisionBits-1) buckets, so reported values are at most
+     *                      2^-(precisionBits-1) above the true value: 3 gives 25%, 6 gives 3% and 8 less than 1%. Memory
+     *                      use doubles for each extra bit.
+     */
+    public Histogram( int precisionBits )
+    {
+        if( precisionBits < 1 || precisionBits > 16 )
+        {
+            throw new IllegalArgumentException( "Precision must be between 1 and 16 bits, got " + precisionBits );
+        }
+        this.precisionBits = precisionBits;
+        this.subBucketCount = 1 << precisionBits;
+        this.subBucketHalfCount = subBucketCount >> 1;
+        this.counts = new long[subBucketCount + (63 - precisionBits) * subBucketHalfCount];
+    }
+
+    public void record( long value )
+    {
+        record( value, 1 );
+    }
+
+    public void record( long value, long count )
+    {
+        if( value < 0 )
+        {
+            value = 0;
+        }
+        counts[bucketFor( value )] += count;
+        total += count;
+        sum += value * count;
+        min = Math.min( min, value );
+        max = Math.max( max, value );
+    }
+
+    /** Add all values recorded in another histogram with the same precision to this one */
+    public void add( Histogram other )
+    {
+        if( other.precisionBits != precisionBits )
+        {
+            throw new IllegalArgumentException( "Can't add histograms of different precision, " +
+                                                precisionBits + " != " + other.precisionBits );
+        }
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        min = Math.min( min, other.min );
+        max = Math.max( max, other.max );
+    }
+
+    public long count()
+    {
+        return total;
+    }
+
+    public long sum()
+    {
+        return sum;
+    }
+
+    public long min()
+    {
+        return total == 0 ? 0 : min;
+    }
+
+    public long max()
+    {
+        return max;
+    }
+
+    public double mean()
+    {
+        return total == 0 ? 0 : (double) sum / total;
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return the highest value that falls in the same bucket as the value at the given percentile
+     */
+    public long percentile( double percentile )
+    {
+        if( total == 0 )
+        {
+            return 0;
+        }
+        long target = Math.max( 1, (long) Math.ceil( total * Math.min( 100.0, percentile ) / 100.0 ) );
+        long seen = 0;
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            seen += counts[i];
+            if( seen >= target )
+            {
+                return Math.max( min(), Math.min( highestValueIn( i ), max ) );
+            }
+        }
+        return max;
+    }
+
+    /** Short one-line summary, eg. {@code n=1023 min=3 p50=78 p99=1021 max=1499} */
+    public String summary()
+    {
+        return String.format( "n=%d min=%d p50=%d p99=%d max=%d", total, min(), percentile( 50 ), percentile( 99 ), max );
+    }
+
+    /** Print each non-empty bucket on its own line, with a bar showing its share of all recorded values */
+    public void print( PrintStream out, String indent )
+    {
+        if( total == 0 )
+        {
+            out.println( indent + "(no values)" );
+            return;
+        }
+        long largest = 0;
+        for ( long count : counts )
+        {
+            largest = Math.max( largest, count );
+        }
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            if( counts[i] == 0 )
+            {
+                continue;
+            }
+            int barLength = (int) Math.max( 1, counts[i] * 40 / largest );
+            out.println( String.format( "%s%10d - %-10d %10d %5.1f%% %s", indent,
+                    lowestValueIn( i ), highestValueIn( i ), counts[i], counts[i] * 100.0 / total,
+                    new String( new char[barLength] ).replace( '\0', '#' ) ) );
+        }
+    }
+
+    /** Write this histogram so that {@link #readFrom(DataInput)} can read it back, eg. in another process */
+    public void writeTo( DataOutput out ) throws IOException
+    {
+        out.writeByte( precisionBits );
+        out.writeLong( total );
+        out.writeLong( sum );
+        out.writeLong( min );
+        out.writeLong( max );
+        int used = 0;
+        for ( long count : counts )
+        {
+            used += count == 0 ? 0 : 1;
+        }
+        out.writeInt( used );
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            if( counts[i] != 0 )
+            {
+                out.writeInt( i );
+                out.writeLong( counts[i] );
+            }
+        }
+    }
+
+    public static Histogram readFrom( DataInput in ) throws IOException
+    {
+        Histogram histogram = new Histogram( in.readByte() );
+        histogram.total = in.readLong();
+        histogram.sum = in.readLong();
+        histogram.min = in.readLong();
+        histogram.max = in.readLong();
+        for ( int used = in.readInt(); used > 0; used-- )
+        {
+            histogram.counts[in.readInt()] = in.readLong();
+        }
+        return histogram;
+    }
+
+    private int bucketFor( long value )
+    {
+        if( value < subBucketCount )
+        {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros( value )) - (precisionBits - 1);
+        int subBucket = (int) (value >>> shift);
+        return subBucketCount + (shift - 1) * subBucketHalfCount + (subBucket - subBucketHalfCount);
+    }
+
+    private long lowestValueIn( int bucket )
+    {
+        if( bucket < subBucketCount )
+        {
+            return bucket;
+        }
+        int offset = bucket - subBucketCount;
+        int shift = offset / subBucketHalfCount + 1;
+        long subBucket = subBucketHalfCount + offset % subBucketHalfCount;
+        return subBucket << shift;
+    }
+
+    private long highestValueIn( int bucket )
+    {
+        if( bucket < subBucketCount )
+        {
+            return bucket;
+        }
+        int offset = bucket - subBucketCount;
+        int shift = offset / subBucketHalfCount + 1;
+        long subBucket = subBucketHalfCount + offset % subBucketHalfCount;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer.stats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Latency per statement {@link Fingerprint}, as captured and as replayed, to tell whether the replay target is slower
+ * or faster than the captured server at the same work. Thread safe.
+ *
+ * Replayed latency is kept twice. Service time runs from when a query was actually sent, which is what the database
+ * spent on it. Response time runs from when the query should have been sent according to the capture: if the target
+ * falls behind, queries queue up behind slow ones and are sent late, and only response time shows the wait - measuring
+ * from the actual send alone would hide exactly the stalls a replay is meant to find, known as coordinated omission.
+ * Regressions are judged on response time.
+ */
+public class LatencyComparison
+{
+    /** Differences smaller than this are noise, however large they are relatively */
+    private static final long MIN_SIGNIFICANT_US = 1000;
+
+    private final double threshold;
+    private final Map<String,Latencies> fingerprints = new HashMap<>();
+
+    /** @param threshold how much slower, as a fraction, a percentile must get to count as a regression; eg. 0.2 for 20% */
+    public LatencyComparison( double threshold )
+    {
+        this.threshold = threshold;
+    }
+
+    public synchronized void captured( String statement, long latencyUs )
+    {
+        latencies( statement ).captured.record( latencyUs );
+    }
+
+    /**
+     * @param serviceUs from when the query was actually sent until it completed
+     * @param responseUs from when the query was due to be sent until it completed
+     */
+    public synchronized void replayed( String statement, long serviceUs, long responseUs )
+    {
+        Latencies latencies = latencies( statement );
+        latencies.service.record( serviceUs );
+        latencies.response.record( Math.max( serviceUs, responseUs ) );
+    }
+
+    /** Replayed response times of all statements together */
+    public synchronized Histogram responseTimes()
+    {
+        Histogram all = new Histogram();
+        fingerprints.values().forEach( l -> all.add( l.response ) );
+        return all;
+    }
+
+    /** Write everything recorded so far, for {@link #addFrom(DataInput)} to merge into a comparison elsewhere */
+    public synchronized void writeTo( DataOutput out ) throws IOException
+    {
+        out.writeInt( fingerprints.size() );
+        for ( Map.Entry<String,Latencies> entry : fingerprints.entrySet() )
+        {
+            byte[] fingerprint = entry.getKey().getBytes( StandardCharsets.UTF_8 );
+            out.writeInt( fingerprint.length );
+            out.write( fingerprint );
+            entry.getValue().captured.writeTo( out );
+            entry.getValue().service.writeTo( out );
+            entry.getValue().response.writeTo( out );
+        }
+    }
+
+    /** Add the latencies written by {@link #writeTo(DataOutput)} to the ones recorded here */
+    public synchronized void addFrom( DataInput in ) throws IOException
+    {
+        for ( int remaining = in.readInt(); remaining > 0; remaining-- )
+        {
+            byte[] fingerprint = new byte[in.readInt()];
+            in.readFully( fingerprint );
+            Latencies latencies = fingerprints.computeIfAbsent(
+                    new String( fingerprint, StandardCharsets.UTF_8 ), f -> new Latencies() );
+            latencies.captured.add( Histogram.readFrom( in ) );
+            latencies.service.add( Histogram.readFrom( in ) );
+            latencies.response.add( Histogram.readFrom( in ) );
+        }
+    }
+
+    /** One row per fingerprint, the ones that took the most time in the capture first */
+    public synchronized void print( PrintStream out )
+    {
+        List<Map.Entry<String,Latencies>> rows = new ArrayList<>( fingerprints.entrySet() );
+        rows.sort( ( a, b ) -> Long.compare( b.getValue().captured.sum(), a.getValue().captured.sum() ) );
+
+        out.println( String.format( "Latency per statement, captured vs replayed (us). Response time counts from when " +
+                                    "a query was due, service time from when it was sent. Regression: %.0f%% slower.",
+                threshold * 100 ) );
+        out.println( "captured\tcapturedP50\tcapturedP99\treplayed\tresponseP50\tresponseP99\tserviceP50\tserviceP99" +
+                     "\tp50Change\tp99Change\tverdict\tfingerprint" );
+        int regressions = 0;
+        for ( Map.Entry<String,Latencies> row : rows )
+        {
+            Latencies l = row.getValue();
+            String verdict = l.verdict( threshold );
+            regressions += verdict.equals( "REGRESSION" ) ? 1 : 0;
+            out.println( String.format( "%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%s\t%s\t%s\t%s",
+                    l.captured.count(), l.captured.percentile( 50 ), l.captured.percentile( 99 ),
+                    l.response.count(), l.response.percentile( 50 ), l.response.percentile( 99 ),
+                    l.service.percentile( 50 ), l.service.percentile( 99 ),
+                    change( l.captured, l.response, 50 ), change( l.captured, l.response, 99 ), verdict, row.getKey() ) );
+        }
+        out.println( String.format( "%d of %d statements regressed", regressions, rows.size() ) );
+    }
+
+    private Latencies latencies( String statement )
+    {
+        return fingerprints.computeIfAbsent( Fingerprint.of( statement ), f -> new Latencies() );
+    }
+
+    private static String change( Histogram before, Histogram after, double percentile )
+    {
+        if( before.count() == 0 || after.count() == 0 )
+        {
+            return "-";
+        }
+        long was = before.percentile( percentile );
+        long is = after.percentile( percentile );
+        return was == 0 ? "-" : String.format( "%+.1f%%", (is - was) * 100.0 / was );
+    }
+
+    private static class Latencies
+    {
+        private final Histogram captured = new Histogram();
+        private final Histogram service = new Histogram();
+        private final Histogram response = new Histogram();
+
+        String verdict( double threshold )
+        {
+            if( captured.count() == 0 )
+            {
+                return "not-captured";
+            }
+            if( response.count() == 0 )
+            {
+                return "not-replayed";
+            }
+            if( slower( response, captured, 50, threshold ) || slower( response, captured, 99, threshold ) )
+            {
+                return "REGRESSION";
+            }
+            if( slower( captured, response, 50, threshold ) && slower( captured, response, 99, threshold ) )
+            {
+                return "improved";
+            }
+            return "ok";
+        }
+
+        private static boolean slower( Histogram a, Histogram b, double percentile, double threshold )
+        {
+            long was = b.percentile( percentile );
+            long is = a.percentile( percentile );
+            return is - was > MIN_SIGNIFICANT_US && is > was * (1 + threshold);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer.timing;
+
+/**
+ * Decides when something captured at a given time should happen during replay, as a {@link System#nanoTime()}.
+ *
+ * Replay can run faster or slower than the capture by a constant factor, or ignore captured timing altogether and go
+ * as fast as the target allows. Gaps where nothing at all happened in the capture can be shortened, to skip the quiet
+ * parts of a long capture. Timestamps must be handed in in capture order.
+ */
+public class ReplayClock
+{
+    private final double speed;
+    private final long maxIdleUs;
+    private final long microsPerUnit;
+
+    private long startNs = -1;
+    private long lastTimestamp = -1;
+    /** Microseconds into the capture, after idle gaps have been shortened */
+    private long offsetUs;
+
+    /**
+     * @param speed how many times faster than captured to replay, or {@link Double#POSITIVE_INFINITY} to not wait at all
+     * @param maxIdleUs shorten gaps between captured packets to at most this many microseconds, or 0 to keep them as they were
+     * @param microsPerUnit unit of the captured timestamps, see {@link org.neo4j.tools.boltalyzer.TimeMapper#microsPerUnit(String)}
+     */
+    public ReplayClock( double speed, long maxIdleUs, long microsPerUnit )
+    {
+        if( !(speed > 0) )
+        {
+            throw new IllegalArgumentException( "Replay speed must be positive, got " + speed );
+        }
+        this.speed = speed;
+        this.maxIdleUs = maxIdleUs;
+        this.microsPerUnit = microsPerUnit;
+    }
+
+    /** Parse a speed as given on the command line: a factor like "2.0", or "max" */
+    public static double parseSpeed( String speed )
+    {
+        return speed.equalsIgnoreCase( "max" ) ? Double.POSITIVE_INFINITY : Double.parseDouble( speed );
+    }
+
+    /** True if captured timing is ignored, and everything should happen as soon as it can */
+    public boolean isMax()
+    {
+        return speed == Double.POSITIVE_INFINITY;
+    }
+
+    /** Length in microseconds of a duration between two captured timestamps, as it was captured */
+    public long durationMicros( long capturedDuration )
+    {
+        return capturedDuration * microsPerUnit;
+    }
+
+    /**
+     * Start replay at the given {@link System#nanoTime()}, rather than when the first timestamp is handed in. Lets
+     * several replaying processes start together, as long as they hand in the same first timestamp.
+     */
+    public void startAt( long startNs )
+    {
+        this.startNs = startNs;
+    }
+
+    /**
+     * When to replay something captured at the given timestamp. The first timestamp is the start of the capture, and
+     * unless {@link #startAt(long)} was called, the first call is the start of the replay.
+     */
+    public long dueNs( long timestamp )
+    {
+        if( startNs == -1 )
+        {
+            startNs = System.nanoTime();
+        }
+        if( lastTimestamp == -1 )
+        {
+            lastTimestamp = timestamp;
+        }
+        if( isMax() )
+        {
+            return startNs;
+        }
+
+        long gapUs = Math.max( 0, timestamp - lastTimestamp ) * microsPerUnit;
+        offsetUs += maxIdleUs > 0 ? Math.min( gapUs, maxIdleUs ) : gapUs;
+        lastTimestamp = Math.max( lastTimestamp, timestamp );
+        return startNs + (long) (offsetUs * 1000 / speed);
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2002-2017 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.tools.boltalyzer.timing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.neo4j.tools.boltalyzer.stats.Histogram;
+
+/**
+ * A hashed timer wheel that runs tasks at a given {@link System#nanoTime()} with sub-millisecond accuracy.
+ *
+ * Time is cut into ticks, and each task goes into the bucket for the tick it is due in, along with how many turns of
+ * the wheel remain before then. A single thread visits the buckets in turn, and runs the tasks whose time has come.
+ * Unlike timers that sleep in whole milliseconds, the thread parks until shortly before the next task is due, then
+ * spins the rest of the way - so bursts that were microseconds apart when captured stay microseconds apart.
+ *
+ * Tasks run on the wheel thread, so they should hand any real work off to somewhere else.
+ */
+public class TimerWheel implements AutoCloseable
+{
+    /** Parking overshoots by tens of microseconds, so stop parking this close to a deadline and spin instead */
+    private static final long SPIN_NS = TimeUnit.MICROSECONDS.toNanos( 80 );
+    /** With nothing scheduled, how long to park before checking again, if not woken by a new task */
+    private static final long IDLE_PARK_NS = TimeUnit.MILLISECONDS.toNanos( 10 );
+
+    private final long tickNs;
+    private final int mask;
+    private final List<List<Timeout>> buckets;
+    private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final Histogram lateness = new Histogram();
+    private final Thread thread;
+    private final long startNs = System.nanoTime();
+
+    private volatile boolean running = true;
+    private long tick = 0;
+    private long pending = 0;
+
+    public TimerWheel()
+    {
+        this( TimeUnit.MICROSECONDS.toNanos( 100 ), 4096 );
+    }
+
+    /**
+     * @param tickNs length of each tick; shorter ticks mean fewer tasks to look at per tick, but more wakeups
+     * @param wheelSize number of buckets, rounded up to a power of two; tasks further out than this many ticks take
+     *                  extra turns of the wheel
+     */
+    public TimerWheel( long tickNs, int wheelSize )
+    {
+        int size = Integer.highestOneBit( Math.max( 1, wheelSize - 1 ) ) << 1;
+        this.tickNs = tickNs;
+        this.mask = size - 1;
+        this.buckets = new ArrayList<>( size );
+        for ( int i = 0; i < size; i++ )
+        {
+            buckets.add( new ArrayList<>() );
+        }
+        this.thread = new Thread( this::run, "boltalyzer-timer-wheel" );
+        this.thread.setDaemon( true );
+        this.thread.start();
+    }
+
+    /** Run the task at the given {@link System#nanoTime()}, or as soon as possible if that has passed. Thread safe. */
+    public void schedule( long deadlineNs, Runnable task )
+    {
+        incoming.add( new Timeout( deadlineNs, task ) );
+        LockSupport.unpark( thread );
+    }
+
+    /**
+     * How late tasks were run compared to their deadline, in microseconds. Only read this after {@link #close()}, it is
+     * updated by the wheel thread without synchronization.
+     */
+    public Histogram lateness()
+    {
+        return lateness;
+    }
+
+    /** Stop the wheel; tasks that have not run yet never will */
+    @Override
+    public void close() throws InterruptedException
+    {
+        running = false;
+        LockSupport.unpark( thread );
+        thread.join();
+    }
+
+    private void run()
+    {
+        while( running )
+        {
+            transferIncoming();
+
+            // Finish every tick that has fully passed, catching up if we overslept
+            long now = System.nanoTime();
+            while( tickEnd( tick ) <= now )
+            {
+                endTick( buckets.get( (int) (tick & mask) ), now );
+                tick++;
+            }
+            runDue( buckets.get( (int) (tick & mask) ), now );
+
+            waitForNextDeadline();
+        }
+    }
+
+    private void transferIncoming()
+    {
+        Timeout timeout;
+        while( (timeout = incoming.poll()) != null )
+        {
+            long dueTick = Math.max( tick, (timeout.deadlineNs - startNs) / tickNs );
+            timeout.rounds = (dueTick - tick) >> Long.numberOfTrailingZeros( mask + 1 );
+            buckets.get( (int) (dueTick & mask) ).add( timeout );
+            pending++;
+        }
+    }
+
+    /** Run the tasks in the current tick that are due by now */
+    private void runDue( List<Timeout> bucket, long now )
+    {
+        int kept = 0;
+        for ( int i = 0; i < bucket.size(); i++ )
+        {
+            Timeout timeout = bucket.get( i );
+            if( timeout.rounds <= 0 && timeout.deadlineNs <= now )
+            {
+                fire( timeout, now );
+            }
+            else
+            {
+                bucket.set( kept++, timeout );
+            }
+        }
+        bucket.subList( kept, bucket.size() ).clear();
+    }
+
+    /** The tick is over: run what is left for this turn of the wheel, and count down the turns of the rest */
+    private void endTick( List<Timeout> bucket, long now )
+    {
+        int kept = 0;
+        for ( int i = 0; i < bucket.size(); i++ )
+        {
+            Timeout timeout = bucket.get( i );
+            if( timeout.rounds <= 0 )
+            {
+                fire( timeout, now );
+            }
+            else
+            {
+                timeout.rounds--;
+                bucket.set( kept++, timeout );
+            }
+        }
+        bucket.subList( kept, bucket.size() ).clear();
+    }
+
+    private void fire( Timeout timeout, long now )
+    {
+        pending--;
+        lateness.record( Math.max( 0, now - timeout.deadlineNs ) / 1000 );
+        timeout.task.run();
+    }
+
+    private void waitForNextDeadline()
+    {
+        if( pending == 0 )
+        {
+            LockSupport.parkNanos( IDLE_PARK_NS );
+            return;
+        }
+
+        // Tasks due in this tick or early in the next need accuracy; if there are none, the end of the tick does not
+        long deadline = tickEnd( tick );
+        boolean spin = false;
+        for ( long t = tick; t <= tick + 1; t++ )
+        {
+            for ( Timeout timeout : buckets.get( (int) (t & mask) ) )
+            {
+                if( timeout.rounds <= 0 && (!spin || timeout.deadlineNs < deadline) )
+                {
+                    deadline = timeout.deadlineNs;
+                    spin = true;
+                }
+            }
+            if( spin )
+            {
+                break;
+            }
+        }
+
+        long remaining;
+        while( running && incoming.isEmpty() && (remaining = deadline - System.nanoTime()) > 0 )
+        {
+            if( !spin || remaining > SPIN_NS )
+            {
+                LockSupport.parkNanos( spin ? remaining - SPIN_NS : remaining );
+            }
+        }
+    }
+
+    private long tickEnd( long tick )
+    {
+        return startNs + (tick + 1) * tickNs;
+    }
+
+    private static class Timeout
+    {
+        private final long deadlineNs;
+        private final Runnable task;
+        private long rounds;
+
+        Timeout( long deadlineNs, Runnable task )
+        {
+            this.deadlineNs = deadlineNs;
+            this.task = task;
+        }
+    }
+}
@@ -19,6 +19,7 @@ public class WebsocketDecoder implements Function<ByteBuffer,ByteBuffer>
                 // so discard that by reading until 0D0A 0D0A
                 while(packet.remaining() > 0) {
                     int b = packet.get() & 0xff;
+                    ctx.overhead++;
                     switch(ctx.endHeaderBytesSeen)
                     {
                     case 0:
@@ -63,6 +64,7 @@ public class WebsocketDecoder implements Function<ByteBuffer,ByteBuffer>
                 int chunk;
 
                 chunk = packet.get() & 0xff;
+                ctx.overhead++;
                 boolean fin = (chunk & 0b10000000) != 0;
                 int opcode = (chunk & 0b00001111);
 
@@ -85,10 +87,13 @@ public class WebsocketDecoder implements Function<ByteBuffer,ByteBuffer>
                 ctx.masked = (chunk & 0b10000000) != 0;
                 long payloadLen = (chunk & 0b01111111);
 
+                ctx.overhead++;
                 if(payloadLen == 126) {
                     ctx.payloadLen = packet.getShort() & 0xffff;
+                    ctx.overhead += 2;
                 } else if(payloadLen == 127 ) {
                     ctx.payloadLen = packet.getLong();
+                    ctx.overhead += 8;
                 } else {
                     ctx.payloadLen = payloadLen;
                 }
@@ -116,6 +121,7 @@ public class WebsocketDecoder implements Function<ByteBuffer,ByteBuffer>
                 }
                 if(ctx.masked) {
                     packet.get(ctx.maskingKey);
+                    ctx.overhead += 4;
                 }
 
                 return PAYLOAD;
@@ -170,6 +176,13 @@ public class WebsocketDecoder implements Function<ByteBuffer,ByteBuffer>
     private long payloadLen = 0;
     private boolean masked;
     private byte[] maskingKey = new byte[4];
+    private long overhead = 0;
+
+    /** Total bytes spent on the HTTP upgrade and websocket frame headers so far, as opposed to payload */
+    public long overhead()
+    {
+        return overhead;
+    }
 
     @Override
     public ByteBuffer apply( ByteBuffer packet )
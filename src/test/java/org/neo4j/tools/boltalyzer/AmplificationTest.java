@@ -0,0 +1,26 @@
+package org.neo4j.tools.boltalyzer;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+public class AmplificationTest
+{
+    @Test
+    public void shouldPerturbIntegerParametersPerCopy() throws Exception
+    {
+        // Given
+        Amplification amplification = new Amplification( 3, 1000, 0, 100 );
+        Map<String,Object> params = map( "id", 7L, "ids", asList( 1L, 2L ), "name", "Bob", "score", 1.5 );
+
+        // Then the original is left alone, and copies get their own ids
+        assert amplification.params( 0, params ) == params;
+        assert amplification.params( 2, params ).equals( map( "id", 207L, "ids", asList( 201L, 202L ), "name", "Bob", "score", 1.5 ) )
+                : amplification.params( 2, params );
+        assert amplification.offsetNs( 0 ) == 0;
+        assert amplification.offsetNs( 2 ) == 2_000_000;
+    }
+}
@@ -0,0 +1,36 @@
+package org.neo4j.tools.boltalyzer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.neo4j.harness.junit.Neo4jRule;
+
+public class CapacityRampTest
+{
+    @Rule
+    public Neo4jRule neo4j = new Neo4jRule();
+
+    @Test
+    public void shouldRampUpCopiesOfTheCapture() throws Exception
+    {
+        // Given
+        String file = getClass().getClassLoader().getResource("boltalyzer/CreateNode.pcap").getFile();
+
+        // When
+        WebsocketTest.OutputCapture capturer = new WebsocketTest.OutputCapture();
+        try(AutoCloseable ignore = capturer.capture(System.out))
+        {
+            Boltalyzer.main(
+                    "capacity",
+                    "--target", neo4j.boltURI().toASCIIString(),
+                    "--slo", "60000", "--steps", "2", "--min-gain", "0",
+                    file);
+        }
+
+        // Then
+        String report = capturer.captured();
+        assert report.contains( "step\tcopies\tqueries\tseconds\tthroughput\tp50\tp99\tverdict\n" ) : report;
+        assert report.contains( "\n1\t1\t1\t" ) : report;
+        assert report.contains( "\n2\t2\t2\t" ) : report;
+        assert report.contains( "Maximum sustainable throughput: " ) : report;
+    }
+}
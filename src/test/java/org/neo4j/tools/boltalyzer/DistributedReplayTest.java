@@ -0,0 +1,71 @@
+package org.neo4j.tools.boltalyzer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.harness.junit.Neo4jRule;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class DistributedReplayTest
+{
+    @Rule
+    public Neo4jRule neo4j = new Neo4jRule();
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    @Test
+    public void shouldSplitReplayAcrossWorkerProcesses() throws Exception
+    {
+        // Given two worker processes on this machine, waiting for a coordinator
+        String file = getClass().getClassLoader().getResource("boltalyzer/CreateNode.pcap").getFile();
+        int port;
+        try(ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        List<Process> workers = new ArrayList<>();
+        List<File> logs = new ArrayList<>();
+        for(int i = 0; i < 2; i++) {
+            File log = dir.newFile("worker-" + i + ".log");
+            logs.add(log);
+            workers.add(new ProcessBuilder(
+                    new File(System.getProperty("java.home"), "bin/java").getPath(),
+                    "-cp", System.getProperty("java.class.path"),
+                    Boltalyzer.class.getName(), "worker", file, "--coordinator", "localhost:" + port)
+                    .redirectErrorStream(true).redirectOutput(log).start());
+        }
+
+        // When
+        WebsocketTest.OutputCapture capturer = new WebsocketTest.OutputCapture();
+        try(AutoCloseable ignore = capturer.capture(System.out))
+        {
+            Boltalyzer.main(
+                    "replay",
+                    "--target", neo4j.boltURI().toASCIIString(),
+                    "--distribute", "2", "--listen", String.valueOf(port),
+                    file);
+        }
+        for(int i = 0; i < workers.size(); i++) {
+            assert workers.get(i).waitFor(1, TimeUnit.MINUTES) && workers.get(i).exitValue() == 0
+                    : new String(Files.readAllBytes(logs.get(i).toPath()), "UTF-8");
+        }
+
+        // Then the one captured session was replayed by one of the workers
+        GraphDatabaseService db = neo4j.getGraphDatabaseService();
+        try(Transaction ignored = db.beginTx()) {
+            assert db.findNodes(Label.label("ReplayTest")).stream().count() == 1 : capturer.captured();
+        }
+        String report = capturer.captured();
+        assert report.contains("Worker 0 done") && report.contains("Worker 1 done") : report;
+        assert report.contains("Response times across all workers (us): n=1 ") : report;
+        assert report.contains("\tCREATE (:ReplayTest)\n") : report;
+    }
+}
@@ -0,0 +1,97 @@
+package org.neo4j.tools.boltalyzer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.tools.boltalyzer.stats.LatencyComparison;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
+import static org.neo4j.tools.boltalyzer.Dict.dict;
+
+public class EmbeddedReplayTest
+{
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    @Test
+    public void shouldReplayAgainstCopyOfStore() throws Exception
+    {
+        // Given a store with a node in it
+        String file = getClass().getClassLoader().getResource("boltalyzer/CreateNode.pcap").getFile();
+        File store = new File(dir.getRoot(), "graph.db");
+        GraphDatabaseService db = new GraphDatabaseFactory().newEmbeddedDatabase(store);
+        try(Transaction tx = db.beginTx()) {
+            db.createNode(Label.label("Existing"));
+            tx.success();
+        }
+        db.shutdown();
+
+        // When
+        WebsocketTest.OutputCapture capturer = new WebsocketTest.OutputCapture();
+        try(AutoCloseable ignore = capturer.capture(System.out))
+        {
+            Boltalyzer.main(
+                    "replay",
+                    "--target", "embedded:" + store.getPath(),
+                    file);
+        }
+
+        // Then the query should have been planned and executed
+        String report = capturer.captured();
+        assert report.contains("Ran 1 queries, 0 failed") : report;
+        assert Pattern.compile("^1\\t0\\t\\d+\\t\\d+\\t\\d+\\t\\d+\\t\\d+\\tCREATE \\(:ReplayTest\\)$", Pattern.MULTILINE)
+                .matcher(report).find() : report;
+
+        // And the store itself should be as it was
+        db = new GraphDatabaseFactory().newEmbeddedDatabase(store);
+        try(Transaction ignored = db.beginTx()) {
+            assert db.findNodes(Label.label("ReplayTest")).stream().count() == 0 : "Should have replayed against a copy";
+            assert db.findNodes(Label.label("Existing")).stream().count() == 1;
+        }
+        finally {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldRunExplicitTransactionsPerSession() throws Exception
+    {
+        // Given
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        AnalyzedSession first = new AnalyzedSession("session-1", 1), second = new AnalyzedSession("session-2", 2);
+        EmbeddedReplay replay = new EmbeddedReplay(new PrintStream(report, true, "UTF-8"),
+                new File(dir.getRoot(), "graph.db").toPath(), new LatencyComparison(0.2), 1);
+
+        // When two sessions interleave transactions, one committed and one rolled back
+        replay.accept(run(first, "BEGIN"));
+        replay.accept(run(first, "CREATE (:Committed)"));
+        replay.accept(run(second, "BEGIN"));
+        replay.accept(run(second, "CREATE (:RolledBack)"));
+        replay.accept(run(first, "COMMIT"));
+        replay.accept(run(second, "ROLLBACK"));
+        replay.accept(run(first, "MATCH (n:Committed) WITH count(n) AS n RETURN 1 / n"));
+        replay.accept(run(first, "MATCH (n:RolledBack) WITH count(n) AS n RETURN 1 / n"));
+        replay.close();
+
+        // Then the transaction statements are not run as queries, and only the committed node is there afterwards
+        String out = new String(report.toByteArray(), StandardCharsets.UTF_8);
+        assert out.contains("Ran 4 queries, 1 failed") : out;
+        assert Pattern.compile("^0\\t1\\t.*MATCH \\(n:RolledBack\\)", Pattern.MULTILINE).matcher(out).find() : out;
+    }
+
+    private static Dict run(AnalyzedSession session, String statement) {
+        return dict(Fields.session, session, Fields.messages, singletonList(dict(Fields.Message.type, "RUN",
+                Fields.Message.statement, statement, Fields.Message.params, emptyMap())));
+    }
+}
@@ -0,0 +1,143 @@
+package org.neo4j.tools.boltalyzer;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+public class ExportTest
+{
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    @Test
+    public void shouldExportQueriesToSegments() throws Exception
+    {
+        // Given
+        String file = getClass().getClassLoader().getResource("boltalyzer/websocket.pcap").getFile();
+        File out = dir.newFolder();
+
+        // When segments are small enough that the queries don't fit in one
+        WebsocketTest.OutputCapture capturer = new WebsocketTest.OutputCapture();
+        try(AutoCloseable ignore = capturer.capture(System.out))
+        {
+            Boltalyzer.main("export", file, "--dir", out.getPath(), "--segment-size", "0.001", "--gzip");
+        }
+
+        // Then
+        String report = capturer.captured();
+        JsonNode manifest = new ObjectMapper().readTree(new File(out, "manifest.json"));
+        assert manifest.get("records").getLongValue() == 38 : report;
+        assert manifest.get("segments").size() > 1 : manifest;
+
+        List<JsonNode> queries = new ArrayList<>();
+        for (JsonNode segment : manifest.get("segments")) {
+            File segmentFile = new File(out, segment.get("file").getTextValue());
+            assert segmentFile.length() == segment.get("bytes").getLongValue() : manifest;
+            try(BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new FileInputStream(segmentFile)), StandardCharsets.UTF_8))) {
+                String line;
+                while((line = reader.readLine()) != null) {
+                    queries.add(new ObjectMapper().readTree(line));
+                }
+            }
+        }
+        assert queries.size() == 38 : queries;
+        assert queries.get(0).get("statement").getTextValue().equals("CALL db.indexes()") : queries.get(0);
+        assert queries.get(0).get("session").getTextValue().startsWith("session-") : queries.get(0);
+        assert report.contains("Exported 38 queries to " + manifest.get("segments").size() + " segments") : report;
+    }
+
+    @Test
+    public void shouldExportFilePerQueryOnRequest() throws Exception
+    {
+        // Given
+        String file = getClass().getClassLoader().getResource("boltalyzer/websocket.pcap").getFile();
+        File out = dir.newFolder();
+
+        // When
+        Boltalyzer.main("export", file, "--dir", out.getPath(), "--file-per-query");
+
+        // Then
+        assert out.list().length == 38 : out.list().length;
+    }
+
+    @Test
+    public void shouldExportQueriesToColumns() throws Exception
+    {
+        // Given
+        String file = getClass().getClassLoader().getResource("boltalyzer/websocket.pcap").getFile();
+        File out = dir.newFolder();
+
+        // When
+        Boltalyzer.main("export", file, "--dir", out.getPath(), "--format", "columnar");
+
+        // Then
+        try(ColumnarReader reader = new ColumnarReader(new File(out, "queries.columns").toPath())) {
+            assert reader.columns().contains("fingerprint") : reader.columns();
+            long rows = reader.rows();
+            assert rows > 0 && rows <= 38 : rows;
+
+            List<String> statements = new ArrayList<>();
+            reader.scanText("statement", statements::add);
+            assert statements.size() == rows : statements;
+            assert statements.get(0).equals("CALL db.indexes()") : statements;
+
+            List<Long> times = new ArrayList<>();
+            reader.scan("time", times::add);
+            assert times.get(0) == 1520960459584577L : times;
+            reader.scan("latency", latency -> { assert latency >= 0 : latency; });
+
+            assert reader.dictionary("fingerprint").size() <= reader.dictionary("statement").size();
+            assert reader.dictionary("error").contains("") : reader.dictionary("error");
+        }
+    }
+
+    @Test
+    public void shouldBoundColumnarDictionariesAndStillReadEveryStatement() throws Exception
+    {
+        // Given a writer that starts new row groups often, and clears its dictionaries whenever they pass 100 bytes
+        File file = new File(dir.newFolder(), "queries.columns");
+        AnalyzedSession session = new AnalyzedSession("session-1", 1);
+        List<String> written = new ArrayList<>();
+        try(ColumnarExport export = new ColumnarExport(new PrintStream(new ByteArrayOutputStream()),
+                file.toPath(), 1, 3, 100)) {
+            // When clients send literals, so each statement is new, with one that keeps coming back
+            for (int i = 0; i < 50; i++) {
+                String statement = i % 2 == 0 ? "MATCH (n) RETURN n" : "MATCH (n) WHERE n.id = " + i + " RETURN n";
+                written.add(statement);
+                export.accept(Dict.dict(Fields.queries, Collections.singletonList(Dict.dict(
+                        Fields.Message.statement, statement, Fields.session, session, Fields.Query.started, (long) i,
+                        Fields.Query.finished, i + 5L, Fields.Query.resultBytes, 0L, Fields.Query.records, 0L))));
+            }
+        }
+
+        // Then
+        try(ColumnarReader reader = new ColumnarReader(file.toPath())) {
+            List<String> statements = new ArrayList<>();
+            reader.scanText("statement", statements::add);
+            assert statements.equals(written) : statements;
+
+            // and the statement that keeps coming back was written again after each reset
+            long repeats = reader.dictionary("statement").stream().filter("MATCH (n) RETURN n"::equals).count();
+            assert repeats > 1 && repeats < 25 : repeats;
+
+            List<Long> latencies = new ArrayList<>();
+            reader.scan("latency", latencies::add);
+            assert latencies.stream().allMatch(l -> l == 5) : latencies;
+        }
+    }
+}
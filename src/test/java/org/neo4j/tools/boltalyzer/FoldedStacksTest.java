@@ -0,0 +1,31 @@
+package org.neo4j.tools.boltalyzer;
+
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+public class FoldedStacksTest
+{
+    @Test
+    public void shouldFoldQueryTimeByClientAndFingerprint() throws Exception
+    {
+        // Given
+        String file = getClass().getClassLoader().getResource("boltalyzer/websocket.pcap").getFile();
+
+        // When
+        WebsocketTest.OutputCapture capturer = new WebsocketTest.OutputCapture();
+        try(AutoCloseable ignore = capturer.capture(System.out))
+        {
+            Boltalyzer.main("flame", file);
+        }
+
+        // Then
+        String report = capturer.captured();
+        assert Pattern.compile("^127\\.0\\.0\\.1;neo4j-javascript/1\\.4\\.1;CALL db\\.indexes\\(\\);run \\d+$", Pattern.MULTILINE)
+                .matcher(report).find() : report;
+        assert report.contains("127.0.0.1;neo4j-javascript/1.4.1;CALL dbms.cluster.role() YIELD role;failed ") : report;
+        for (String line : report.split("\n")) {
+            assert line.split(";").length == 4 : line;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.neo4j.tools.boltalyzer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import java.io.File;
+import java.util.Map;
+
+public class GraphImportTest
+{
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    @Test
+    public void shouldImportCaptureAsGraph() throws Exception
+    {
+        // Given
+        String file = getClass().getClassLoader().getResource("boltalyzer/websocket.pcap").getFile();
+        File store = new File(dir.getRoot(), "traffic.db");
+
+        // When
+        WebsocketTest.OutputCapture capturer = new WebsocketTest.OutputCapture();
+        try(AutoCloseable ignore = capturer.capture(System.out))
+        {
+            Boltalyzer.main("import", file, "--output", store.getPath());
+        }
+
+        // Then
+        String report = capturer.captured();
+        assert report.contains("Imported 38 queries in ") : report;
+
+        GraphDatabaseService db = new GraphDatabaseFactory().newEmbeddedDatabase(store);
+        try(Transaction ignored = db.beginTx()) {
+            // Every query belongs to a session opened by a client, and is an instance of a fingerprint
+            Map<String,Object> row = db.execute(
+                    "MATCH (:Client)-[:OPENED]->(s:Session)-[:RAN]->(q:Query)-[:INSTANCE_OF]->(f:Fingerprint) " +
+                    "RETURN count(q) AS queries, count(DISTINCT s) AS sessions, sum(f.executions) > 0 AS counted").next();
+            assert ((Number) row.get("queries")).longValue() == 38 : row;
+
+            // And the queries of each session are chained in order
+            Result chains = db.execute(
+                    "MATCH (s:Session)-[:RAN]->(q:Query) WHERE NOT ()-[:NEXT]->(q) " +
+                    "RETURN s.name AS session, count(q) AS firstQueries");
+            long sessions = 0;
+            while(chains.hasNext()) {
+                Map<String,Object> chain = chains.next();
+                assert ((Number) chain.get("firstQueries")).longValue() == 1 : chain;
+                sessions++;
+            }
+            assert sessions == ((Number) row.get("sessions")).longValue() : row;
+
+            Map<String,Object> first = db.execute(
+                    "MATCH (q:Query)-[:INSTANCE_OF]->(f) WHERE q.queryNo = 0 AND q.statement = 'CALL db.indexes()' " +
+                    "RETURN f.text AS text, q.outcome AS outcome LIMIT 1").next();
+            assert first.get("text").equals("CALL db.indexes()") : first;
+            assert first.get("outcome").equals("SUCCESS") : first;
+        }
+        finally {
+            db.shutdown();
+        }
+    }
+}
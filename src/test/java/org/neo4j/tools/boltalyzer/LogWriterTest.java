@@ -0,0 +1,33 @@
+package org.neo4j.tools.boltalyzer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static java.util.Collections.emptyList;
+import static org.neo4j.tools.boltalyzer.Dict.dict;
+
+public class LogWriterTest
+{
+    @Test
+    public void shouldFlushPacketsWhenTrafficGoesQuiet() throws Exception
+    {
+        // Given
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LogWriter log = new LogWriter(Channels.newChannel(out), false);
+
+        // When a single packet arrives, and then nothing more
+        log.accept(dict(Fields.timeString, "0000000001", Fields.session, new AnalyzedSession("session-1", 1),
+                Fields.logicalSource, "Client", Fields.messages, emptyList()));
+
+        // Then it shows up without waiting for more packets or for the log to close
+        long deadline = System.currentTimeMillis() + 10_000;
+        while(out.size() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assert new String(out.toByteArray(), StandardCharsets.UTF_8).equals("0000000001\tsession-1\tClient\t\n") : out;
+        log.close();
+    }
+}
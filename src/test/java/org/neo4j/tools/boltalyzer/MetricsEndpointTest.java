@@ -0,0 +1,85 @@
+package org.neo4j.tools.boltalyzer;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Scanner;
+
+public class MetricsEndpointTest
+{
+    @Test
+    public void shouldServeMetricsWhileCaptureIsPipedIn() throws Exception
+    {
+        // Given a capture piped in on stdin, with the pipe kept open as tcpdump would
+        String file = getClass().getClassLoader().getResource("boltalyzer/websocket.pcap").getFile();
+        int port;
+        try(ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        PipedOutputStream tcpdump = new PipedOutputStream();
+        InputStream stdin = System.in;
+        System.setIn(new PipedInputStream(tcpdump, 64 * 1024));
+
+        WebsocketTest.OutputCapture capturer = new WebsocketTest.OutputCapture();
+        Thread boltalyzer;
+        try(AutoCloseable ignore = capturer.capture(System.out))
+        {
+            boltalyzer = new Thread(() -> {
+                try {
+                    Boltalyzer.main("metrics", "-", "--listen", String.valueOf(port));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            boltalyzer.start();
+            tcpdump.write(Files.readAllBytes(Paths.get(file)));
+            tcpdump.flush();
+
+            // When
+            String metrics = "";
+            long deadline = System.currentTimeMillis() + 30_000;
+            while(!metrics.contains("bolt_sessions_total 15") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+                metrics = scrape(port);
+            }
+
+            // Then
+            assert boltalyzer.isAlive() : "Capture should not end while the pipe is open";
+            assert metrics.contains("bolt_queries_total{fingerprint=\"CALL dbms.queryJmx(?)\",outcome=\"SUCCESS\"} 12") : metrics;
+            assert metrics.contains("bolt_query_duration_seconds_bucket{fingerprint=\"CALL db.indexes()\",le=\"0.005\"} 1") : metrics;
+            assert metrics.contains("bolt_query_duration_seconds_count{fingerprint=\"CALL db.indexes()\"} 3") : metrics;
+            assert metrics.contains("bolt_query_failures_total{code=\"Neo.ClientError.Statement.SyntaxError\"} 6") : metrics;
+            assert metrics.contains("bolt_bytes_total{sender=\"client\"} 9858") : metrics;
+            assert metrics.contains("bolt_sessions_active 12") : metrics;
+
+            tcpdump.close();
+            boltalyzer.join(30_000);
+        }
+        finally
+        {
+            System.setIn(stdin);
+        }
+        assert !boltalyzer.isAlive();
+        assert capturer.captured().contains("Capture ended after 15 sessions") : capturer.captured();
+    }
+
+    private static String scrape(int port) throws Exception
+    {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/metrics").openConnection();
+            try(Scanner body = new Scanner(connection.getInputStream(), StandardCharsets.UTF_8.name()).useDelimiter("\\A")) {
+                return body.hasNext() ? body.next() : "";
+            }
+        } catch (java.net.ConnectException e) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.neo4j.tools.boltalyzer;
+
+import org.junit.Test;
+
+public class NetStatsTest
+{
+    @Test
+    public void shouldReportNetworkEfficiency() throws Exception
+    {
+        // Given
+        String file = getClass().getClassLoader().getResource("boltalyzer/websocket.pcap").getFile();
+
+        // When
+        WebsocketTest.OutputCapture capturer = new WebsocketTest.OutputCapture();
+        try(AutoCloseable ignore = capturer.capture(System.out))
+        {
+            Boltalyzer.main( "netstats", file, "--session", "11" );
+        }
+
+        // Then
+        String report = capturer.captured();
+        assert report.contains( "session-011\tClient\t14\t8\t2008\t1096\t45.4%\t28\t915\t7\t" ) : report;
+        assert report.contains( "session-011\tServer\t9\t8\t1030\t436\t57.7%\t28\t145\t7\t" ) : report;
+        assert report.contains( "Client totals across 1 sessions" ) : report;
+        assert report.contains( "Bolt messages:        7" ) : report;
+    }
+}
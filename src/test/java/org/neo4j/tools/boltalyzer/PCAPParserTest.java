@@ -31,6 +31,10 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.neo4j.tools.boltalyzer.Fields.dstPort;
 import static org.neo4j.tools.boltalyzer.Fields.srcPort;
+import static org.neo4j.tools.boltalyzer.Fields.tcpAck;
+import static org.neo4j.tools.boltalyzer.Fields.tcpFlags;
+import static org.neo4j.tools.boltalyzer.Fields.tcpSeq;
+import static org.neo4j.tools.boltalyzer.Fields.tcpWindow;
 
 public class PCAPParserTest
 {
@@ -47,5 +51,9 @@ public class PCAPParserTest
         assertThat( packets.size(), equalTo( 21 ));
         assertThat( packets.get( 0 ).get( dstPort ), equalTo( 7687 ));
         assertThat( packets.get( 0 ).get( srcPort ), equalTo( 49349 ));
+        assertThat( packets.get( 0 ).get( tcpFlags ), equalTo( PCAPParser.TCP_SYN ));
+        assertThat( packets.get( 0 ).get( tcpSeq ), equalTo( 2112939815L ));
+        assertThat( packets.get( 1 ).get( tcpAck ), equalTo( 2112939816L ));
+        assertThat( packets.get( 2 ).get( tcpWindow ), equalTo( 9186 ));
     }
 }
@@ -0,0 +1,84 @@
+package org.neo4j.tools.boltalyzer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+
+public class PcapSlicerTest
+{
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    @Test
+    public void shouldSliceOutOneSession() throws Exception
+    {
+        // Given
+        String file = getClass().getClassLoader().getResource("boltalyzer/websocket.pcap").getFile();
+        File slice = new File(dir.getRoot(), "slice.pcap");
+
+        // When
+        Boltalyzer.main("slice", file, "--session", "2", "--output", slice.getPath());
+
+        // Then the slice is a capture with the same header, holding only the packets of that connection
+        byte[] original = Files.readAllBytes(new File(file).toPath());
+        byte[] sliced = Files.readAllBytes(slice.toPath());
+        assert Arrays.equals(Arrays.copyOf(original, 24), Arrays.copyOf(sliced, 24));
+
+        List<Dict> all = sessions(packets(new File(file)));
+        List<Dict> kept = sessions(packets(slice));
+        assert kept.size() > 0;
+        assert kept.size() == all.stream().filter(p -> p.get(Fields.session).id() == 2).count() : kept.size();
+        assert kept.stream().allMatch(p -> p.get(Fields.connectionKey).equals(kept.get(0).get(Fields.connectionKey)));
+    }
+
+    @Test
+    public void shouldSliceByTimeAndPort() throws Exception
+    {
+        // Given
+        String file = getClass().getClassLoader().getResource("boltalyzer/websocket.pcap").getFile();
+        File slice = new File(dir.getRoot(), "slice.pcap");
+        List<Dict> all = packets(new File(file));
+        long from = all.get(all.size() / 2).get(Fields.timestamp);
+
+        // When
+        Boltalyzer.main("slice", file, "--from", String.valueOf(from), "--port", "7687", "--output", slice.getPath());
+
+        // Then
+        List<Dict> kept = packets(slice);
+        assert kept.size() > 0;
+        assert kept.size() == all.stream().filter(p -> p.get(Fields.timestamp) >= from
+                && (p.get(Fields.srcPort) == 7687 || p.get(Fields.dstPort) == 7687)).count() : kept.size();
+    }
+
+    private static List<Dict> packets(File pcap) throws IOException
+    {
+        try(Stream<Dict> packets = new PCAPParser().parse(new FileInputStream(pcap))) {
+            return packets.collect(toList());
+        }
+    }
+
+    /** Number the sessions the way the analysis pipeline does */
+    private static List<Dict> sessions(List<Dict> packets)
+    {
+        Boltalyzer.SessionRepository sessions = new Boltalyzer.SessionRepository(false);
+        for (Dict p : packets) {
+            AnalyzedSession session = sessions.session(p.get(Fields.connectionKey), p.get(Fields.tcpFlags));
+            session.observeTcpFlags(p.get(Fields.src) + ":" + p.get(Fields.srcPort), p.get(Fields.tcpFlags));
+            if (session.isClosed()) {
+                sessions.release(p.get(Fields.connectionKey));
+            }
+            p.put(Fields.session, session);
+        }
+        return packets;
+    }
+}
@@ -0,0 +1,81 @@
+package org.neo4j.tools.boltalyzer;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import org.neo4j.tools.boltalyzer.Fields.Message;
+import org.neo4j.tools.boltalyzer.Fields.Query;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static org.neo4j.tools.boltalyzer.Dict.dict;
+
+public class QueryTrackerTest
+{
+    private final AnalyzedSession session = new AnalyzedSession( "session-000", 0 );
+    private final QueryTracker tracker = new QueryTracker();
+
+    @Test
+    public void shouldNoLongerCountQueryInFlightOnceResetWithoutPull() throws Exception
+    {
+        // When a query is run, and then reset instead of pulled
+        assert tracker.apply( packet( 1000, "Client", run( "RETURN 1" ) ) ).get( Fields.queriesInFlight ) == 1;
+        tracker.apply( packet( 1100, "Server", message( "SUCCESS" ) ) );
+        tracker.apply( packet( 1200, "Client", message( "RESET" ) ) );
+        Dict acknowledged = tracker.apply( packet( 1300, "Server", message( "SUCCESS" ) ) );
+
+        // Then
+        assert acknowledged.get( Fields.queriesInFlight ) == 0 : acknowledged;
+        assert !acknowledged.has( Fields.queries ) : acknowledged;
+    }
+
+    @Test
+    public void shouldCompleteQueryWhoseRunFailsBeforeItIsPulled() throws Exception
+    {
+        // When a query fails, and the client acknowledges the failure without pulling
+        tracker.apply( packet( 1000, "Client", run( "RETURN oops" ) ) );
+        Dict failed = tracker.apply( packet( 1100, "Server", message( "FAILURE" ) ) );
+        tracker.apply( packet( 1200, "Client", message( "ACK_FAILURE" ) ) );
+        Dict acknowledged = tracker.apply( packet( 1300, "Server", message( "SUCCESS" ) ) );
+
+        // Then it completes with the failure
+        List<Dict> queries = failed.get( Fields.queries );
+        assert queries.size() == 1 : failed;
+        assert queries.get( 0 ).get( Query.outcome ).equals( "FAILURE" ) : queries;
+        assert queries.get( 0 ).get( Query.finished ) == 1100L : queries;
+        assert failed.get( Fields.queriesInFlight ) == 0 : failed;
+        assert acknowledged.get( Fields.queriesInFlight ) == 0 : acknowledged;
+    }
+
+    @Test
+    public void shouldCompletePipelinedQueryWhenItsPullIsIgnored() throws Exception
+    {
+        // When a query is sent along with its pull, and fails
+        tracker.apply( packet( 1000, "Client", run( "RETURN oops" ), message( "PULL_ALL" ) ) );
+        Dict failed = tracker.apply( packet( 1100, "Server", message( "FAILURE" ), message( "IGNORED" ) ) );
+
+        // Then it completes once, with the failure
+        List<Dict> queries = failed.get( Fields.queries );
+        assert queries.size() == 1 : failed;
+        assert queries.get( 0 ).get( Query.outcome ).equals( "FAILURE" ) : queries;
+        assert failed.get( Fields.queriesInFlight ) == 0 : failed;
+    }
+
+    private Dict packet( long timestamp, String source, Dict... messages )
+    {
+        return dict( Fields.timestamp, timestamp, Fields.timeString, Long.toString( timestamp ), Fields.session, session,
+                Fields.logicalSource, source, Fields.messages, asList( messages ) );
+    }
+
+    private static Dict run( String statement )
+    {
+        return dict( Message.type, BoltMessageDescriber.MSG_RUN, Message.queryNo, 1L, Message.statement, statement,
+                Message.params, emptyMap() );
+    }
+
+    private static Dict message( String type )
+    {
+        return dict( Message.type, type );
+    }
+}
@@ -9,6 +9,7 @@ import org.neo4j.graphdb.Transaction;
 import org.neo4j.harness.junit.Neo4jRule;
 
 import java.util.Iterator;
+import java.util.regex.Pattern;
 
 public class ReplayTest
 {
@@ -22,10 +23,14 @@ public class ReplayTest
         String file = getClass().getClassLoader().getResource("boltalyzer/CreateNode.pcap").getFile();
 
         // When
-        Boltalyzer.main(
-                "replay",
-                "--target", neo4j.boltURI().toASCIIString(),
-                file);
+        WebsocketTest.OutputCapture capturer = new WebsocketTest.OutputCapture();
+        try(AutoCloseable ignore = capturer.capture(System.out))
+        {
+            Boltalyzer.main(
+                    "replay",
+                    "--target", neo4j.boltURI().toASCIIString(),
+                    file);
+        }
 
         // Then the node should've gotten created
         GraphDatabaseService db = neo4j.getGraphDatabaseService();
@@ -36,5 +41,35 @@ public class ReplayTest
             assert nodes.next().hasLabel(Label.label("ReplayTest")) : "Should have created a node with label ReplayTest";
             assert !nodes.hasNext() : "Should just have created a single node.";
         }
+
+        // And the query latency should have been compared with the captured one
+        String report = capturer.captured();
+        assert Pattern.compile( "^1\\t\\d+\\t\\d+\\t1\\t.*\\t(ok|improved|REGRESSION)\\tCREATE \\(:ReplayTest\\)$",
+                Pattern.MULTILINE ).matcher( report ).find() : report;
+    }
+
+    @Test
+    public void shouldReplayCopiesOfEachSession() throws Exception
+    {
+        // Given
+        String file = getClass().getClassLoader().getResource("boltalyzer/CreateNode.pcap").getFile();
+
+        // When
+        WebsocketTest.OutputCapture capturer = new WebsocketTest.OutputCapture();
+        try(AutoCloseable ignore = capturer.capture(System.out))
+        {
+            Boltalyzer.main(
+                    "replay",
+                    "--target", neo4j.boltURI().toASCIIString(),
+                    "--multiply", "3", "--jitter", "10",
+                    file);
+        }
+
+        // Then each copy should've created a node of its own
+        GraphDatabaseService db = neo4j.getGraphDatabaseService();
+        try(Transaction ignored = db.beginTx()) {
+            assert db.findNodes(Label.label("ReplayTest")).stream().count() == 3 : capturer.captured();
+        }
+        assert capturer.captured().contains( ", 3 copies of each session" ) : capturer.captured();
     }
 }
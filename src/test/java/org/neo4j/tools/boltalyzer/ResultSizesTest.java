@@ -0,0 +1,28 @@
+package org.neo4j.tools.boltalyzer;
+
+import org.junit.Test;
+
+public class ResultSizesTest
+{
+    @Test
+    public void shouldMeasureResultsWithoutDecodingThem() throws Exception
+    {
+        // Given
+        String file = getClass().getClassLoader().getResource("boltalyzer/websocket.pcap").getFile();
+
+        // When
+        WebsocketTest.OutputCapture capturer = new WebsocketTest.OutputCapture();
+        try(AutoCloseable ignore = capturer.capture(System.out))
+        {
+            Boltalyzer.main( "results", file, "--top", "2" );
+        }
+
+        // Then
+        String report = capturer.captured();
+        assert report.contains( "\tsession-005\t3\t5\t37771\t34099\tSUCCESS\tCALL dbms.queryJmx(\"org.neo4j:*\")\n" ) : report;
+        assert report.contains( "\tsession-014\t1\t1\t24\t24\tSUCCESS\tMATCH (n) RETURN n\n" ) : report;
+        assert report.contains( "\tsession-005\t6\t0\t0\t0\tFAILURE\tCALL dbms.cluster.role() YIELD role\n" ) : report;
+        assert report.contains( "38 queries returned 173 records in 501153 bytes\n" +
+                                "Top 2 queries by result bytes:\n" ) : report;
+    }
+}
@@ -0,0 +1,64 @@
+package org.neo4j.tools.boltalyzer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+
+import org.junit.Test;
+
+import org.neo4j.tools.boltalyzer.Fields.Query;
+
+import static java.util.Collections.singletonList;
+import static org.neo4j.tools.boltalyzer.Dict.dict;
+import static org.neo4j.tools.boltalyzer.PCAPParser.TCP_ACK;
+
+public class TcpStatsTest
+{
+    private final AnalyzedSession session = new AnalyzedSession( "session-000", 0 );
+
+    @Test
+    public void shouldReportRetransmissionsDuplicateAcksAndZeroWindows() throws Exception
+    {
+        // Given
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream( captured, true, "UTF-8" );
+        TcpStats stats = new TcpStats( out, "us" );
+
+        // When a data segment is acknowledged after 100us, then another is lost, duplicate acked and retransmitted
+        stats.accept( packet( 1000, 1, 100L, 0L, 100, 1 ) );
+        stats.accept( packet( 1100, 2, 500L, 200L, 0, 1 ) );
+        stats.accept( packet( 1200, 1, 200L, 0L, 100, 1 ) );
+        stats.accept( packet( 1300, 1, 300L, 0L, 100, 1 ) );
+        stats.accept( packet( 1400, 2, 500L, 200L, 0, 1 ) );
+        stats.accept( packet( 1500, 2, 500L, 200L, 0, 1 ) );
+        stats.accept( packet( 1600, 1, 200L, 0L, 100, 1 ) );
+        stats.accept( packet( 1700, 2, 500L, 400L, 0, 0 ) );
+        stats.accept( packet( 1800, 2, 500L, 400L, 0, 0 ).put( Fields.queries, singletonList(
+                dict( Query.started, 1150L, Query.finished, 1800L ) ) ) );
+        stats.close();
+
+        // Then
+        String report = captured.toString( "UTF-8" );
+        assert report.contains( "event\t1500\tsession-000\tUnknown\tduplicate-ack\t1\tack=200\n" ) : report;
+        assert report.contains( "event\t1600\tsession-000\tUnknown\tretransmission\t1\tseq=200 len=100\n" ) : report;
+        assert report.contains( "event\t1700\tsession-000\tUnknown\tzero-window\t0\tack=400\n" ) : report;
+        // Only the first segment gives an RTT sample; the ACK covering the retransmitted one is ambiguous
+        assert report.contains( "session\tsession-000\tUnknown\t4\t1\t100\t100\t100\t1\t0\t0\n" ) : report;
+        assert report.contains( "1 of 1 queries ran while their connection had" ) : report;
+    }
+
+    private Dict packet( long timestamp, int srcHost, long seq, long ack, int payloadSize, int windowOrZero ) throws Exception
+    {
+        return new Dict()
+                .put( Fields.timestamp, timestamp )
+                .put( Fields.session, session )
+                .put( Fields.src, InetAddress.getByAddress( new byte[]{10, 0, 0, (byte) srcHost} ) )
+                .put( Fields.srcPort, 7687 )
+                .put( Fields.tcpFlags, TCP_ACK )
+                .put( Fields.tcpSeq, seq )
+                .put( Fields.tcpAck, ack )
+                .put( Fields.tcpWindow, windowOrZero * 1024 )
+                .put( Fields.payloadSize, payloadSize )
+                .put( Fields.queriesInFlight, windowOrZero );
+    }
+}
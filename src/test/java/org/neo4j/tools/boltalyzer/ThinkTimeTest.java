@@ -0,0 +1,26 @@
+package org.neo4j.tools.boltalyzer;
+
+import org.junit.Test;
+
+public class ThinkTimeTest
+{
+    @Test
+    public void shouldSplitSessionTimeBetweenServerAndClient() throws Exception
+    {
+        // Given
+        String file = getClass().getClassLoader().getResource("boltalyzer/websocket.pcap").getFile();
+
+        // When
+        WebsocketTest.OutputCapture capturer = new WebsocketTest.OutputCapture();
+        try(AutoCloseable ignore = capturer.capture(System.out))
+        {
+            Boltalyzer.main( "thinktime", file );
+        }
+
+        // Then
+        String report = capturer.captured();
+        assert report.contains( "session-011\t127.0.0.1\t220479\t195753\t2275\t22451\t88.8%\t1.0%\t10.2%\t2\n" ) : report;
+        assert report.contains( "127.0.0.1\t5\t46098737\t2398421\t101565\t43598751\t5.2%\t0.2%\t94.6%\t38\n" ) : report;
+        assert !report.contains( "Unknown" ) : report;
+    }
+}
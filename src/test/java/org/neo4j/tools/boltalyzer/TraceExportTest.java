@@ -0,0 +1,89 @@
+package org.neo4j.tools.boltalyzer;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+
+public class TraceExportTest
+{
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    @Test
+    public void shouldTraceQueriesPerConnection() throws Exception
+    {
+        // Given
+        String file = getClass().getClassLoader().getResource("boltalyzer/websocket.pcap").getFile();
+        File trace = new File(dir.getRoot(), "trace.json");
+
+        // When
+        Boltalyzer.main("trace", file, "--output", trace.getPath());
+
+        // Then
+        JsonNode events = new ObjectMapper().readTree(trace).get("traceEvents");
+        Map<String,JsonNode> queries = new HashMap<>();
+        List<String> processNames = new ArrayList<>();
+        int firstRecords = 0, inits = 0, threadNames = 0;
+        for (JsonNode event : events) {
+            String phase = event.get("ph").getTextValue();
+            String name = event.get("name").getTextValue();
+            if (phase.equals("X") && !name.equals("first record")) {
+                queries.put(event.get("tid") + "@" + event.get("ts"), event);
+            }
+            firstRecords += name.equals("first record") ? 1 : 0;
+            inits += phase.equals("i") && name.equals("INIT") ? 1 : 0;
+            threadNames += name.equals("thread_name") ? 1 : 0;
+            if (name.equals("process_name")) {
+                processNames.add(event.get("args").get("name").getTextValue());
+            }
+        }
+        assert queries.size() == 38 : queries.size();
+        assert processNames.equals(asList("127.0.0.1")) : processNames;
+        assert inits == 5 : inits;
+        assert threadNames >= 5 : threadNames;
+        assert firstRecords > 0;
+
+        // And the time to the first record should be nested inside its query
+        for (JsonNode event : events) {
+            if (event.get("name").getTextValue().equals("first record")) {
+                JsonNode query = queries.get(event.get("tid") + "@" + event.get("ts"));
+                assert query != null : event;
+                assert event.get("dur").getLongValue() <= query.get("dur").getLongValue() : event + " " + query;
+            }
+        }
+    }
+
+    @Test
+    public void shouldOnlyDrawConnectionsOnceTheirClientIsKnown() throws Exception
+    {
+        // Given a capture whose first packet is the SYN, and whose last is the ACK after both FINs
+        String file = getClass().getClassLoader().getResource("boltalyzer/CreateNode.pcap").getFile();
+        File trace = new File(dir.getRoot(), "trace.json");
+
+        // When
+        Boltalyzer.main("trace", file, "--output", trace.getPath());
+
+        // Then there is one process, named after the client, with one connection in it
+        List<String> processNames = new ArrayList<>();
+        int threadNames = 0;
+        for (JsonNode event : new ObjectMapper().readTree(trace).get("traceEvents")) {
+            String name = event.get("name").getTextValue();
+            if (name.equals("process_name")) {
+                processNames.add(event.get("args").get("name").getTextValue());
+            }
+            threadNames += name.equals("thread_name") ? 1 : 0;
+        }
+        assert processNames.equals(asList("127.0.0.1")) : processNames;
+        assert threadNames == 1 : threadNames;
+    }
+}
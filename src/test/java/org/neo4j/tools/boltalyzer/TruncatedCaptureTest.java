@@ -0,0 +1,105 @@
+package org.neo4j.tools.boltalyzer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+public class TruncatedCaptureTest
+{
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    @Test
+    public void shouldParseWireSizesOfTruncatedPackets() throws Exception
+    {
+        // Given
+        byte[] full = capture();
+
+        // When
+        List<Dict> packets = new PCAPParser().parse(new ByteArrayInputStream(full)).collect(toList());
+        List<Dict> truncated = new PCAPParser().parse(new ByteArrayInputStream(snap(full, 80))).collect(toList());
+
+        // Then every packet is there, with its size on the wire, but only the payload that was captured
+        assert truncated.size() == packets.size() : truncated.size();
+        for (int i = 0; i < packets.size(); i++) {
+            assert truncated.get(i).get(Fields.payloadSize).equals(packets.get(i).get(Fields.payloadSize));
+            assert truncated.get(i).get(Fields.frameSize).equals(packets.get(i).get(Fields.frameSize));
+            // Ethernet, IP and TCP headers take up 66 of the 80 bytes
+            assert truncated.get(i).get(Fields.payload).remaining() <= 80 - 66;
+        }
+    }
+
+    @Test
+    public void shouldTimeQueriesWhosePayloadWasNotCaptured() throws Exception
+    {
+        // Given the RUN is cut off right after its signature, and the responses to it entirely
+        File truncated = dir.newFile("truncated.pcap");
+        Files.write(truncated.toPath(), snap(capture(), 70));
+
+        // When
+        WebsocketTest.OutputCapture capturer = new WebsocketTest.OutputCapture();
+        try(AutoCloseable ignore = capturer.capture(System.out))
+        {
+            Boltalyzer.main("results", truncated.getPath());
+        }
+
+        // Then
+        String report = capturer.captured();
+        assert report.contains("NOT CAPTURED\t" + BoltMessageDescriber.STATEMENT_NOT_CAPTURED) : report;
+    }
+
+    @Test
+    public void shouldDecodeMessagesThatWereCapturedInFull() throws Exception
+    {
+        // Given a snap length that cuts off the end-of-message marker of PULL_ALL, and the second SUCCESS
+        File truncated = dir.newFile("truncated.pcap");
+        Files.write(truncated.toPath(), snap(capture(), 100));
+
+        // When
+        WebsocketTest.OutputCapture capturer = new WebsocketTest.OutputCapture();
+        try(AutoCloseable ignore = capturer.capture(System.out))
+        {
+            Boltalyzer.main("results", truncated.getPath());
+        }
+
+        // Then
+        String report = capturer.captured();
+        assert report.contains("SUCCESS\tCREATE (:ReplayTest)") : report;
+    }
+
+    private byte[] capture() throws Exception
+    {
+        return Files.readAllBytes(Paths.get(getClass().getClassLoader().getResource("boltalyzer/CreateNode.pcap").toURI()));
+    }
+
+    /** Rewrite a capture as tcpdump -s would have captured it */
+    private static byte[] snap(byte[] pcap, int snapLength)
+    {
+        ByteBuffer in = ByteBuffer.wrap(pcap).order(ByteOrder.LITTLE_ENDIAN);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(pcap, 0, 24);
+        in.position(24);
+        while (in.remaining() >= 16) {
+            int record = in.position();
+            int captured = in.getInt(record + 8);
+            int kept = Math.min(captured, snapLength);
+            ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(in.getInt(record)).putInt(in.getInt(record + 4)).putInt(kept).putInt(in.getInt(record + 12));
+            out.write(header.array(), 0, 16);
+            out.write(pcap, record + 16, kept);
+            in.position(record + 16 + captured);
+        }
+        return out.toByteArray();
+    }
+}
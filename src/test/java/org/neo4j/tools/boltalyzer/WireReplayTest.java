@@ -0,0 +1,50 @@
+package org.neo4j.tools.boltalyzer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.harness.junit.Neo4jRule;
+
+import java.util.Iterator;
+import java.util.regex.Pattern;
+
+public class WireReplayTest
+{
+    @Rule
+    public Neo4jRule neo4j = new Neo4jRule();
+
+    @Test
+    public void shouldReplayConnectionBytes() throws Exception
+    {
+        // Given
+        String file = getClass().getClassLoader().getResource("boltalyzer/CreateNode.pcap").getFile();
+
+        // When
+        WebsocketTest.OutputCapture capturer = new WebsocketTest.OutputCapture();
+        try(AutoCloseable ignore = capturer.capture(System.out))
+        {
+            Boltalyzer.main(
+                    "replay", "--engine", "wire",
+                    "--target", "bolt://neo4j:neo4j@" + neo4j.boltURI().getAuthority(),
+                    file);
+        }
+
+        // Then the node should've gotten created, with the INIT re-written to use the target credentials
+        GraphDatabaseService db = neo4j.getGraphDatabaseService();
+        try(Transaction ignored = db.beginTx()) {
+            Iterator<Node> nodes = db.getAllNodes().iterator();
+
+            assert nodes.hasNext() : "Should have created one node";
+            assert nodes.next().hasLabel(Label.label("ReplayTest")) : "Should have created a node with label ReplayTest";
+            assert !nodes.hasNext() : "Should just have created a single node.";
+        }
+
+        // And the query latency should have been compared with the captured one
+        String report = capturer.captured();
+        assert Pattern.compile( "^1\\t\\d+\\t\\d+\\t1\\t.*\\t(ok|improved|REGRESSION)\\tCREATE \\(:ReplayTest\\)$",
+                Pattern.MULTILINE ).matcher( report ).find() : report;
+    }
+}
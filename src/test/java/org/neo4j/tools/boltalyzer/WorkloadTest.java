@@ -0,0 +1,50 @@
+package org.neo4j.tools.boltalyzer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.harness.junit.Neo4jRule;
+
+import java.io.File;
+import java.util.regex.Pattern;
+
+public class WorkloadTest
+{
+    @Rule
+    public Neo4jRule neo4j = new Neo4jRule();
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    @Test
+    public void shouldReplayCompiledWorkload() throws Exception
+    {
+        // Given
+        String file = getClass().getClassLoader().getResource("boltalyzer/CreateNode.pcap").getFile();
+        File workload = new File(dir.getRoot(), "CreateNode.workload");
+
+        // When
+        WebsocketTest.OutputCapture capturer = new WebsocketTest.OutputCapture();
+        try(AutoCloseable ignore = capturer.capture(System.out))
+        {
+            Boltalyzer.main("compile", file, "--output", workload.getPath());
+            Boltalyzer.main(
+                    "replay",
+                    "--target", neo4j.boltURI().toASCIIString(),
+                    workload.getPath());
+        }
+
+        // Then
+        String report = capturer.captured();
+        assert report.contains( "Compiled 1 queries in 1 sessions, using 1 distinct statements" ) : report;
+        GraphDatabaseService db = neo4j.getGraphDatabaseService();
+        try(Transaction ignored = db.beginTx()) {
+            assert db.findNodes(Label.label("ReplayTest")).stream().count() == 1 : report;
+        }
+        // And the captured latency should have come along in the workload
+        assert Pattern.compile( "^1\\t1784\\d{3}\\t\\d+\\t1\\t.*\\tCREATE \\(:ReplayTest\\)$", Pattern.MULTILINE )
+                .matcher( report ).find() : report;
+    }
+}
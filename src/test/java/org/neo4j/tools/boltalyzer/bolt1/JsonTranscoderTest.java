@@ -0,0 +1,93 @@
+package org.neo4j.tools.boltalyzer.bolt1;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+import org.neo4j.bolt.v1.messaging.Neo4jPack;
+import org.neo4j.bolt.v1.messaging.infrastructure.ValueNode;
+import org.neo4j.bolt.v1.messaging.infrastructure.ValueRelationship;
+import org.neo4j.bolt.v1.packstream.PackedInputArray;
+import org.neo4j.bolt.v1.packstream.PackedOutputArray;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.tools.boltalyzer.serialize.Bolt2JSON;
+
+public class JsonTranscoderTest
+{
+    @Test
+    public void shouldTranscodeTheWayUnpackedValuesSerialize() throws Exception
+    {
+        // Given
+        Map<String,Object> properties = new HashMap<>();
+        properties.put( "name", "Bob \"the\" builder" );
+        properties.put( "age", 42L );
+        properties.put( "scores", Arrays.asList( 1.5, -2.0, null, true ) );
+        Object value = Arrays.asList(
+                new ValueNode( 12, Arrays.asList( Label.label( "User" ), Label.label( "Admin" ) ), properties ),
+                new ValueRelationship( 7, 12, 13, RelationshipType.withName( "KNOWS" ), properties ),
+                properties,
+                "",
+                Long.MIN_VALUE );
+
+        PackedOutputArray packed = new PackedOutputArray();
+        Neo4jPack.Packer packer = new Neo4jPack.Packer( packed );
+        packer.pack( value );
+        packer.pack( value );
+        packer.flush();
+        Unpacker unpacker = new Unpacker( new PackedInputArray( packed.bytes() ) );
+
+        // When
+        String unpackedJson = Bolt2JSON.mapper().writeValueAsString( unpacker.unpack() );
+        StringWriter transcoded = new StringWriter();
+        try ( JsonGenerator out = Bolt2JSON.mapper().getJsonFactory().createJsonGenerator( transcoded ) )
+        {
+            new JsonTranscoder( unpacker ).transcode( out );
+        }
+        String transcodedJson = transcoded.toString();
+
+        // Then
+        ObjectMapper mapper = new ObjectMapper();
+        assert mapper.readTree( transcodedJson ).equals( mapper.readTree( unpackedJson ) ) :
+                transcodedJson + " != " + unpackedJson;
+        assert transcodedJson.startsWith( "[[\"NODE\",12,[\"User\",\"Admin\"],{" ) : transcodedJson;
+        assert transcodedJson.contains( "[\"RELATIONSHIP\",7,[12,\"KNOWS\",13],{" ) : transcodedJson;
+    }
+
+    @Test
+    public void shouldTranscodeRecordsOneAfterAnotherThroughOneTranscoder() throws Exception
+    {
+        // Given
+        PackedRecord.Transcoder transcoder = new PackedRecord.Transcoder();
+        PackedRecord longer = record( Arrays.asList( "a", 1L, Arrays.asList( 2.5, "nested" ), null ) );
+        PackedRecord shorter = record( Arrays.asList( true ) );
+
+        // When
+        StringWriter transcoded = new StringWriter();
+        try ( JsonGenerator out = Bolt2JSON.mapper().getJsonFactory().createJsonGenerator( transcoded ) )
+        {
+            out.writeStartArray();
+            longer.transcode( transcoder, out );
+            shorter.transcode( transcoder, out );
+            longer.transcode( transcoder, out );
+            out.writeEndArray();
+        }
+
+        // Then
+        assert transcoded.toString().equals( "[[\"a\",1,[2.5,\"nested\"],null],[true],[\"a\",1,[2.5,\"nested\"],null]]" ) :
+                transcoded;
+    }
+
+    private static PackedRecord record( Object fields ) throws Exception
+    {
+        PackedOutputArray packed = new PackedOutputArray();
+        Neo4jPack.Packer packer = new Neo4jPack.Packer( packed );
+        packer.pack( fields );
+        packer.flush();
+        return new PackedRecord( packed.bytes() );
+    }
+}
@@ -0,0 +1,40 @@
+package org.neo4j.tools.boltalyzer.stats;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+public class LatencyComparisonTest
+{
+    @Test
+    public void shouldFingerprintStatementsWithInlinedValues() throws Exception
+    {
+        assert Fingerprint.of( "MATCH (n:User {id: 12, name: 'Bob'})\n  RETURN n.x1" )
+                .equals( "MATCH (n:User {id: ?, name: ?}) RETURN n.x1" );
+        assert Fingerprint.of( "MATCH (n) WHERE n.id IN [1, 2, 3] RETURN n LIMIT $limit" )
+                .equals( "MATCH (n) WHERE n.id IN [?] RETURN n LIMIT $limit" );
+    }
+
+    @Test
+    public void shouldFlagRegressionsOnResponseTime() throws Exception
+    {
+        // Given
+        LatencyComparison comparison = new LatencyComparison( 0.2 );
+
+        // When one statement is as fast as captured once sent, but was sent late because the target fell behind
+        comparison.captured( "MATCH (n) WHERE id(n) = 1 RETURN n", 10_000 );
+        comparison.replayed( "MATCH (n) WHERE id(n) = 2 RETURN n", 10_000, 50_000 );
+        // And another is just as fast as captured
+        comparison.captured( "RETURN 1", 2_000 );
+        comparison.replayed( "RETURN 1", 2_000, 2_000 );
+
+        // Then
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        comparison.print( new PrintStream( captured, true, "UTF-8" ) );
+        String report = captured.toString( "UTF-8" );
+        assert report.contains( "\tREGRESSION\tMATCH (n) WHERE id(n) = ? RETURN n\n" ) : report;
+        assert report.contains( "\tok\tRETURN ?\n" ) : report;
+        assert report.contains( "1 of 2 statements regressed" ) : report;
+    }
+}
@@ -0,0 +1,53 @@
+package org.neo4j.tools.boltalyzer.timing;
+
+import org.junit.Test;
+
+public class ReplayClockTest
+{
+    @Test
+    public void shouldScaleOffsetsBySpeed() throws Exception
+    {
+        // Given a clock replaying millisecond timestamps twice as fast
+        ReplayClock clock = new ReplayClock( ReplayClock.parseSpeed( "2.0" ), 0, 1000 );
+
+        // When
+        long start = clock.dueNs( 1000 );
+        long later = clock.dueNs( 1100 );
+
+        // Then 100ms in the capture is 50ms in the replay
+        assert later - start == 50_000_000 : later - start;
+    }
+
+    @Test
+    public void shouldCompressIdleGaps() throws Exception
+    {
+        // Given a clock that shortens gaps to at most 10us
+        ReplayClock clock = new ReplayClock( 1, 10, 1 );
+
+        // When
+        long start = clock.dueNs( 0 );
+        long shortGap = clock.dueNs( 5 );
+        long longGap = clock.dueNs( 1_000_005 );
+        long afterLongGap = clock.dueNs( 1_000_008 );
+
+        // Then
+        assert shortGap - start == 5_000 : shortGap - start;
+        assert longGap - start == 15_000 : longGap - start;
+        assert afterLongGap - start == 18_000 : afterLongGap - start;
+    }
+
+    @Test
+    public void shouldMakeEverythingDueImmediatelyAtMaxSpeed() throws Exception
+    {
+        // Given
+        ReplayClock clock = new ReplayClock( ReplayClock.parseSpeed( "max" ), 0, 1 );
+
+        // When
+        long start = clock.dueNs( 0 );
+        long later = clock.dueNs( 60_000_000 );
+
+        // Then
+        assert clock.isMax();
+        assert later == start;
+    }
+}